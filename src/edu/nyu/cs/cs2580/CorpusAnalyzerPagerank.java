@@ -22,7 +22,7 @@ public class CorpusAnalyzerPagerank extends CorpusAnalyzer {
     private static final float LAMBDA = 0.9f;
     private static final int ITERATIONS = 2;
     private static final float LAMBDA_COMP = 1 - LAMBDA;
-    private static String PAGERANK_FILENAME = "pageranks_lambda09_twoIterations";
+    public static final String PAGERANK_FILENAME = "pageranks.f32";
     int _numDocs = 0;
     long docid = 1;
     ConcurrentHashMap<String, Long> docidByFilename;
@@ -149,21 +149,12 @@ public class CorpusAnalyzerPagerank extends CorpusAnalyzer {
     @Override
     public Object load() throws IOException {
         System.out.println("Loading using " + this.getClass().getName());
-        try {
-            String pathstr = _options._pagerankPrefix + "/";
-            String filename = pathstr + PAGERANK_FILENAME;
-            FileInputStream reader = new FileInputStream(filename);
-            ObjectInputStream input = new ObjectInputStream(reader);
-            ConcurrentHashMap<Long, Float> recoveredPageRanks = (ConcurrentHashMap<Long, Float>) input.readObject();
-            input.close();
-            reader.close();
-            return recoveredPageRanks;
-        } catch (ClassNotFoundException ex) {
-            ex.printStackTrace();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
-        return null;
+        String pathstr = _options._pagerankPrefix + "/";
+        String filename = pathstr + PAGERANK_FILENAME;
+        PageRanks pageRanks = PageRanks.open(new File(filename));
+        System.out.println("Loaded page ranks of " + pageRanks.size() + " doc ids (lambda "
+                + pageRanks.getLambda() + ", " + pageRanks.getIterations() + " iterations).");
+        return pageRanks;
     }
 
 
@@ -223,7 +214,7 @@ public class CorpusAnalyzerPagerank extends CorpusAnalyzer {
     }
 
     /**
-     * Writes page-rank scores object to file
+     * Writes page-rank scores to file, see {@link PageRanks}.
      */
     private void flushPageRankToFile() {
         String pathstr = _options._pagerankPrefix + "/";
@@ -236,19 +227,15 @@ public class CorpusAnalyzerPagerank extends CorpusAnalyzer {
         }
 
         try {
-            FileOutputStream newGraph = new FileOutputStream(filename);
             System.out.println("Writing pageranks to " + filename);
-            ObjectOutputStream output = new ObjectOutputStream(newGraph);
-            output.writeObject(finalRanks);
-            output.close();
-            newGraph.close();
+            PageRanks.write(new File(filename), finalRanks, LAMBDA, ITERATIONS);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Writes Document names (filenames) to doc id map to file.
+     * Writes Document names (filenames) to doc id map to file, see {@link FilenameTable}.
      */
     private void flushDocidToFile() {
         String pathstr = _options._indexPrefix + "/";
@@ -261,12 +248,8 @@ public class CorpusAnalyzerPagerank extends CorpusAnalyzer {
         }
 
         try {
-            FileOutputStream newGraph = new FileOutputStream(filename);
             System.out.println("Writing docid's to " + filename);
-            ObjectOutputStream output = new ObjectOutputStream(newGraph);
-            output.writeObject(docidByFilename);
-            output.close();
-            newGraph.close();
+            FilenameTable.write(new File(filename), docidByFilename);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -17,6 +17,12 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 /**
@@ -55,7 +61,8 @@ public class QueryHandler implements HttpHandler {
             PHRASE,
             QL,
             LINEAR,
-            COMPREHENSIVE
+            COMPREHENSIVE,
+            MAXSCORE
         }
         public RankerType _rankerType = RankerType.NONE;
 
@@ -67,8 +74,16 @@ public class QueryHandler implements HttpHandler {
         }
         public OutputFormat _outputFormat = OutputFormat.TEXT;
 
-        public int _numdocs;
-        public int _numterms;
+        // Whether results must have all the tokens of the query, or any.
+        public enum QueryMode {
+            AND,
+            OR
+        }
+        public QueryMode _mode = QueryMode.AND;
+
+        // Documents and terms of pseudo relevance feedback, for /prf.
+        public int _numdocs = 10;
+        public int _numterms = 10;
 
         public CgiArguments(String uriQuery) {
             String[] params = uriQuery.split("&");
@@ -99,6 +114,12 @@ public class QueryHandler implements HttpHandler {
                     } catch (IllegalArgumentException e) {
                         // Ignored, search engine should never fail upon invalid user input.
                     }
+                } else if (key.equals("mode")) {
+                    try {
+                        _mode = QueryMode.valueOf(val.toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        // Ignored, search engine should never fail upon invalid user input.
+                    }
                 }else if (key.equals("numdocs")) {
                     try {
                         _numdocs = Integer.parseInt(val);
@@ -186,6 +207,47 @@ public class QueryHandler implements HttpHandler {
         }
     }
 
+    /**
+     * Pseudo relevance feedback: the numterms terms most frequent in the
+     * documents found, one "term probability" per line, with probabilities
+     * normalized over those terms. Terms found in more than half of the
+     * corpus are left out, like the stop words of the comprehensive ranker.
+     * The terms of the documents come from the forward index.
+     */
+    private void constructPrfOutput(final Vector<ScoredDocument> docs, int numTerms, StringBuffer response) {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (ScoredDocument doc : docs) {
+            Map<String, Integer> termVector = _indexer.termVector((int) doc.getDocumentId());
+            if (termVector == null) {
+                response.append("No forward index, rebuild the index with forward_index: true.\n");
+                return;
+            }
+            for (Map.Entry<String, Integer> term : termVector.entrySet()) {
+                Integer count = counts.get(term.getKey());
+                counts.put(term.getKey(), count == null ? term.getValue() : count + term.getValue());
+            }
+        }
+        List<String> terms = new ArrayList<String>(counts.keySet());
+        Collections.sort(terms, new Comparator<String>() {
+            @Override
+            public int compare(String t1, String t2) {
+                int order = counts.get(t2) - counts.get(t1);
+                return order != 0 ? order : t1.compareTo(t2);
+            }
+        });
+        List<String> expansion = new ArrayList<String>();
+        long total = 0;
+        for (String term : terms) {
+            if (expansion.size() == numTerms) break;
+            if (_indexer.corpusDocFrequencyByTerm(term) > _indexer.numDocs() / 2) continue;
+            expansion.add(term);
+            total += counts.get(term);
+        }
+        for (String term : expansion) {
+            response.append(term).append('\t').append(counts.get(term) / (double) total).append('\n');
+        }
+    }
+
     private String buildDocHTML(ScoredDocument doc) {
         String partial = readFile("html/doc.partial.html");
         partial = partial.replaceAll("\\{\\{docid\\}\\}", Long.toString(doc.getDocumentId()));
@@ -265,50 +327,62 @@ public class QueryHandler implements HttpHandler {
         processedQuery.processQuery();
 
         System.out.println("Running the query: " + processedQuery._tokens);
-        // Ranking.
-        double time = System.currentTimeMillis();
-        Vector<ScoredDocument> scoredDocs;
-        StringBuffer response = new StringBuffer();
-        String contentType = "text/plain";
+        _indexer.startQuery();
         try {
-            scoredDocs = ranker.runQuery(processedQuery, cgiArgs._numResults);
-            time = (System.currentTimeMillis() - time) / 1000.0;
-            System.out.println("Found " + scoredDocs.size() + " / " + cgiArgs._numResults + " docs.");
-            switch (cgiArgs._outputFormat) {
-                case TEXT:
-                    constructTextOutput(scoredDocs, response);
-                    break;
-                case HTML:
-                    constructHTMLOutput(scoredDocs, response, time, processedQuery.toString());
-                    contentType = "text/html";
-                    break;
-                case RESULTS:
-                    constructResultOnlyOutput(scoredDocs, response, time, processedQuery.toString());
-                default:
-                    // nothing
-            }
-        } catch (SpellingException e) {
-            switch (cgiArgs._outputFormat) {
-                case TEXT:
-                    constructTextOutput(e.getMessage(), response);
-                    break;
-                case HTML:
-                    constructHTMLOutput(e.getMessage(), response, processedQuery.toString());
-                    contentType = "text/html";
-                    break;
-                default:
-                    // nothing
-            }
+            // Ranking, on the index as it is when the query starts.
+            double time = System.currentTimeMillis();
+            Vector<ScoredDocument> scoredDocs;
+            StringBuffer response = new StringBuffer();
+            String contentType = "text/plain";
             try {
-                processedQuery = new QueryPhrase(e.getMessage());
-                processedQuery.processQuery();
-                ranker.runQuery(processedQuery, cgiArgs._numResults);
-            } catch (SpellingException e2) {
-                // Just give up on this, for now.
+                if (uriPath.equals("/prf")) {
+                    scoredDocs = ranker.runQuery(processedQuery, cgiArgs._numdocs);
+                    constructPrfOutput(scoredDocs, cgiArgs._numterms, response);
+                    respondWithMsg(exchange, response.toString(), contentType);
+                    System.out.println("Finished feedback for: [" + cgiArgs._query + "]");
+                    return;
+                }
+                scoredDocs = ranker.runQuery(processedQuery, cgiArgs._numResults);
+                time = (System.currentTimeMillis() - time) / 1000.0;
+                System.out.println("Found " + scoredDocs.size() + " / " + cgiArgs._numResults + " docs.");
+                switch (cgiArgs._outputFormat) {
+                    case TEXT:
+                        constructTextOutput(scoredDocs, response);
+                        break;
+                    case HTML:
+                        constructHTMLOutput(scoredDocs, response, time, processedQuery.toString());
+                        contentType = "text/html";
+                        break;
+                    case RESULTS:
+                        constructResultOnlyOutput(scoredDocs, response, time, processedQuery.toString());
+                    default:
+                        // nothing
+                }
+            } catch (SpellingException e) {
+                switch (cgiArgs._outputFormat) {
+                    case TEXT:
+                        constructTextOutput(e.getMessage(), response);
+                        break;
+                    case HTML:
+                        constructHTMLOutput(e.getMessage(), response, processedQuery.toString());
+                        contentType = "text/html";
+                        break;
+                    default:
+                        // nothing
+                }
+                try {
+                    processedQuery = new QueryPhrase(e.getMessage());
+                    processedQuery.processQuery();
+                    ranker.runQuery(processedQuery, cgiArgs._numResults);
+                } catch (SpellingException e2) {
+                    // Just give up on this, for now.
+                }
             }
+            respondWithMsg(exchange, response.toString(), contentType);
+            System.out.println("Finished query: [" + cgiArgs._query + "] in " + time + " seconds.");
+        } finally {
+            _indexer.endQuery();
         }
-        respondWithMsg(exchange, response.toString(), contentType);
-        System.out.println("Finished query: [" + cgiArgs._query + "] in " + time + " seconds.");
     }
 
     private String readFile(String filePath) {
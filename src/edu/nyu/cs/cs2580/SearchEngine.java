@@ -10,6 +10,7 @@ import java.util.Map;
 import java.util.concurrent.Executors;
 
 import com.sun.net.httpserver.HttpServer;
+import edu.nyu.cs.cs2580.helper.PostingsCodec;
 import edu.nyu.cs.cs2580.index.Indexer;
 
 /**
@@ -82,12 +83,58 @@ public class SearchEngine {
 
         public int _num_indexing_threads = 0;
 
-        public int _docs_per_thread = 0;
+        // Files whose doc ids a PageRank mining thread generates at once. Optional.
+        public int _docs_per_thread = 500;
+
+        // Bytes of in-memory postings shared by all indexing threads. A thread
+        // writes out a temporary index once it holds its share. Optional.
+        public long _indexing_memory_budget = 64L * 1024 * 1024;
 
         public int _num_merging_threads = 0;
 
+        // Maximum number of temporary index files merged at once. Optional.
+        public int _merge_fan_in = 64;
+
+        // Number of index segments of the same size merged together after
+        // an update. Optional.
+        public int _segment_merge_factor = 4;
+
         public int _bytes_per_final_index = 0;
 
+        // Codec for the posting lists of a new index, see PostingsCodec.Factory.
+        // Optional, an existing index is always read with the codec it was built with.
+        public String _postings_codec = PostingsCodec.Factory.DEFAULT;
+
+        // Also write every posting list in decreasing order of term frequency,
+        // for early termination. Optional.
+        public boolean _impact_ordered_postings = false;
+
+        // Also write the terms of every document, see ForwardIndex. Optional.
+        public boolean _forward_index = false;
+
+        // Query log read before serving to preload the posting lists of its
+        // most frequent terms: one query per line, or a captured serve log.
+        // Optional, no warmup without it.
+        public String _warmup_query_log = null;
+
+        // Limits of the warmup: number of terms, milliseconds and bytes of
+        // posting lists. The warmup stops at the first one reached. Optional.
+        public int _warmup_terms = 1000;
+        public long _warmup_time_budget = 10000;
+        public long _warmup_memory_budget = 64L * 1024 * 1024;
+
+        // Bytes of posting lists kept in memory while serving, the least
+        // recently used ones dropped first. Optional.
+        public long _postings_cache_budget = 128L * 1024 * 1024;
+
+        // Stop scoring the documents of a query once none left can make the
+        // top results, if the index has impact ordered posting lists. Optional.
+        public boolean _early_termination = false;
+
+        // Weight of the proximity of the query words in a document, see
+        // RankerComprehensive. Optional, 0 leaves proximity out.
+        public double _proximity_weight = 0;
+
         // Additional group specific configuration can be added below.
 
         /**
@@ -140,14 +187,63 @@ public class SearchEngine {
             _num_indexing_threads = Integer.parseInt(options.get("num_indexing_threads"));
             Check(_num_indexing_threads != 0, "Missing option: num_indexing_threads!");
 
-            _docs_per_thread = Integer.parseInt(options.get("docs_per_thread"));
-            Check(_docs_per_thread != 0, "Missing option: docs_per_thread!");
+            if (options.containsKey("docs_per_thread")) {
+                _docs_per_thread = Integer.parseInt(options.get("docs_per_thread"));
+            }
+            Check(_docs_per_thread > 0, "docs_per_thread must be positive");
+
+            if (options.containsKey("indexing_memory_budget")) {
+                _indexing_memory_budget = Long.parseLong(options.get("indexing_memory_budget"));
+            }
+            Check(_indexing_memory_budget > 0, "indexing_memory_budget must be positive");
 
             _num_merging_threads = Integer.parseInt(options.get("num_merging_threads"));
             Check(_num_merging_threads != 0, "Missing option: num_merging_threads");
 
+            if (options.containsKey("merge_fan_in")) _merge_fan_in = Integer.parseInt(options.get("merge_fan_in"));
+            Check(_merge_fan_in >= 2, "merge_fan_in must be at least 2");
+
+            if (options.containsKey("segment_merge_factor")) {
+                _segment_merge_factor = Integer.parseInt(options.get("segment_merge_factor"));
+            }
+            Check(_segment_merge_factor >= 2, "segment_merge_factor must be at least 2");
+
             _bytes_per_final_index = Integer.parseInt(options.get("bytes_per_final_index"));
             Check(_bytes_per_final_index != 0, "Missing option: bytes_per_final_index");
+
+            if (options.containsKey("postings_codec")) _postings_codec = options.get("postings_codec");
+            Check(PostingsCodec.Factory.getCodecByName(_postings_codec) != null,
+                    "Unknown postings_codec: " + _postings_codec);
+            if (options.containsKey("impact_ordered_postings")) {
+                _impact_ordered_postings = Boolean.parseBoolean(options.get("impact_ordered_postings"));
+            }
+            if (options.containsKey("forward_index")) {
+                _forward_index = Boolean.parseBoolean(options.get("forward_index"));
+            }
+
+            if (options.containsKey("warmup_query_log")) _warmup_query_log = options.get("warmup_query_log");
+            if (options.containsKey("warmup_terms")) _warmup_terms = Integer.parseInt(options.get("warmup_terms"));
+            Check(_warmup_terms >= 0, "warmup_terms must not be negative");
+            if (options.containsKey("warmup_time_budget")) {
+                _warmup_time_budget = Long.parseLong(options.get("warmup_time_budget"));
+            }
+            Check(_warmup_time_budget >= 0, "warmup_time_budget must not be negative");
+            if (options.containsKey("warmup_memory_budget")) {
+                _warmup_memory_budget = Long.parseLong(options.get("warmup_memory_budget"));
+            }
+            Check(_warmup_memory_budget >= 0, "warmup_memory_budget must not be negative");
+            if (options.containsKey("postings_cache_budget")) {
+                _postings_cache_budget = Long.parseLong(options.get("postings_cache_budget"));
+            }
+            Check(_postings_cache_budget >= 0, "postings_cache_budget must not be negative");
+
+            if (options.containsKey("early_termination")) {
+                _early_termination = Boolean.parseBoolean(options.get("early_termination"));
+            }
+            if (options.containsKey("proximity_weight")) {
+                _proximity_weight = Double.parseDouble(options.get("proximity_weight"));
+            }
+            Check(_proximity_weight >= 0, "proximity_weight must not be negative");
         }
     }
     public static Options OPTIONS = null;
@@ -169,6 +265,7 @@ public class SearchEngine {
         NONE,
         MINING,
         INDEX,
+        UPDATE,
         SERVE,
     };
     public static Mode MODE = Mode.NONE;
@@ -193,8 +290,8 @@ public class SearchEngine {
                 OPTIONS = new Options(value);
             }
         }
-        Check(MODE == Mode.SERVE || MODE == Mode.INDEX || MODE == Mode.MINING,
-                "Must provide a valid mode: serve or index or mining!");
+        Check(MODE == Mode.SERVE || MODE == Mode.INDEX || MODE == Mode.UPDATE || MODE == Mode.MINING,
+                "Must provide a valid mode: serve or index or update or mining!");
         Check(MODE != Mode.SERVE || PORT != -1,
                 "Must provide a valid port number (258XX) in serve mode!");
         Check(OPTIONS != null, "Must provide options!");
@@ -221,12 +318,20 @@ public class SearchEngine {
         indexer.constructIndex();
     }
 
+    private static void startUpdating() throws IOException {
+        Indexer indexer = Indexer.Factory.getIndexerByOption(SearchEngine.OPTIONS);
+        Check(indexer != null,
+                "Indexer " + SearchEngine.OPTIONS._indexerType + " not found!");
+        indexer.updateIndex();
+    }
+
     private static void startServing() throws IOException, ClassNotFoundException {
         // Create the handler and its associated indexer.
         Indexer indexer = Indexer.Factory.getIndexerByOption(SearchEngine.OPTIONS);
         Check(indexer != null,
                 "Indexer " + SearchEngine.OPTIONS._indexerType + " not found!");
         indexer.loadIndex();
+        indexer.warmUp();
         QueryHandler handler = new QueryHandler(SearchEngine.OPTIONS, indexer);
 
         // Establish the serving environment
@@ -249,6 +354,9 @@ public class SearchEngine {
                 case INDEX:
                     startIndexing();
                     break;
+                case UPDATE:
+                    startUpdating();
+                    break;
                 case SERVE:
                     startServing();
                     break;
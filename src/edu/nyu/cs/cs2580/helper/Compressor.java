@@ -1,82 +1,127 @@
 package edu.nyu.cs.cs2580.helper;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.nio.ByteBuffer;
 
+/**
+ * VByte compression of non-negative integers.
+ * <p/>
+ * Every value is cut into groups of 7 bits, most significant group first, one
+ * group per byte. The last byte of a value has its high bit set.
+ * <p/>
+ * The streaming methods (writeVByte, readVByte and the decodeVBytes variant
+ * taking an int[]) work on buffers supplied by the caller and allocate nothing
+ * per value. Use {@link VByteCursor} to decode values one at a time.
+ */
 public class Compressor {
-    public static int[] deltaEncode(long[] postingList) {
-        int index = 0;
-        int[] result = new int[postingList.length];
-        long baseDocId = 0;
-        while (index < postingList.length) {
-            long docId = postingList[index];
-            docId = docId - baseDocId;
-            baseDocId = docId + baseDocId;
-            result[index++] = (int) docId;
-            long numOccs = postingList[index];
-            result[index++] = (int) numOccs;
+    private static final int STOP_BIT = 1 << 7;
+    private static final int LOW_BITS = STOP_BIT - 1;
 
-            long baseIdx = 0;
-            for (int i = 0; i < numOccs; i++) {
-                long idx = postingList[index];
-                idx = idx - baseIdx;
-                baseIdx = idx + baseIdx;
-                result[index++] = (int) idx;
-            }
-        }
-        return result;
+    /**
+     * Number of bytes {@code p} takes once encoded.
+     */
+    public static int vByteLength(int p) {
+        int length = 1;
+        while ((p >>>= 7) != 0) length++;
+        return length;
     }
 
     public static byte[] convertToVBytes(int[] postingList) {
-        List<Byte> bytes = new ArrayList<Byte>(postingList.length * 2);
-        for (int p : postingList) {
-            for (byte b : convertToVBytes(p))
-                bytes.add(b);
-        }
-        byte[] result = new byte[bytes.size()];
-        for (int i = 0; i < bytes.size(); i++) result[i] = bytes.get(i);
-        return result;
+        return convertToVBytes(postingList, postingList.length);
+    }
+
+    /**
+     * Encode postingList[0, count).
+     */
+    public static byte[] convertToVBytes(int[] postingList, int count) {
+        int length = 0;
+        for (int i = 0; i < count; i++) length += vByteLength(postingList[i]);
+        ByteBuffer result = ByteBuffer.allocate(length);
+        writeVBytes(postingList, count, result);
+        return result.array();
     }
 
     public static byte[] convertToVBytes(int p) {
-        List<Byte> resultList = new ArrayList<Byte>();
-        do {
-            resultList.add((byte) (p & ((1 << 7) - 1)));
-            p >>= 7;
-        } while (p > 0);
-        Collections.reverse(resultList);
-        byte b = resultList.get(resultList.size() - 1);
-        b |= (1<<7);
-        resultList.set(resultList.size() - 1, b);
-        byte[] result = new byte[resultList.size()];
-        for (int i = 0; i < result.length; i++) {
-            result[i] = resultList.get(i);
+        ByteBuffer result = ByteBuffer.allocate(vByteLength(p));
+        writeVByte(p, result);
+        return result.array();
+    }
+
+    /**
+     * Write {@code p} at the position of {@code out}.
+     */
+    public static void writeVByte(int p, ByteBuffer out) {
+        for (int shift = 7 * (vByteLength(p) - 1); shift > 0; shift -= 7) {
+            out.put((byte) ((p >>> shift) & LOW_BITS));
         }
-        return result;
+        out.put((byte) ((p & LOW_BITS) | STOP_BIT));
     }
 
-    public static int[] decodeVBytes(byte[] postingList) {
-        List<Integer> resultList = new ArrayList<Integer>();
-        for (int i = 0; i < postingList.length; ) {
-            List<Byte> bytes = new ArrayList<Byte>();
-            while (true) {
-                byte b = postingList[i++];
-                if ((b & (1<<7)) == (1<<7)) {
-                    bytes.add((byte) (b & ~(1<<7)));
-                    break;
-                }
-                bytes.add(b);
-            }
-            Collections.reverse(bytes);
+    /**
+     * Write postingList[0, count) at the position of {@code out}.
+     */
+    public static void writeVBytes(int[] postingList, int count, ByteBuffer out) {
+        for (int i = 0; i < count; i++) writeVByte(postingList[i], out);
+    }
+
+    /**
+     * Read one value at the position of {@code in}.
+     */
+    public static int readVByte(ByteBuffer in) {
+        int result = 0;
+        while (true) {
+            byte b = in.get();
+            result = (result << 7) | (b & LOW_BITS);
+            if ((b & STOP_BIT) != 0) return result;
+        }
+    }
+
+    /**
+     * Decode {@code count} values starting at postingList[from] into out[0, count).
+     *
+     * @return the index of the byte following the last decoded value.
+     */
+    public static int decodeVBytes(byte[] postingList, int from, int[] out, int count) {
+        int i = from;
+        for (int j = 0; j < count; j++) {
             int result = 0;
-            for (int j = 0; j < bytes.size(); j++) {
-                result += (bytes.get(j)) << (7*j);
-            }
-            resultList.add(result);
+            byte b;
+            do {
+                b = postingList[i++];
+                result = (result << 7) | (b & LOW_BITS);
+            } while ((b & STOP_BIT) == 0);
+            out[j] = result;
+        }
+        return i;
+    }
+
+    public static int[] decodeVBytes(byte[] postingList) {
+        return decodeVBytes(postingList, 0, postingList.length);
+    }
+
+    /**
+     * Decode the values stored in postingList[from, to).
+     */
+    public static int[] decodeVBytes(byte[] postingList, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if ((postingList[i] & STOP_BIT) != 0) count++;
         }
-        int[] result = new int[resultList.size()];
-        for (int i = 0; i < result.length; i++) result[i] = resultList.get(i);
+        int[] result = new int[count];
+        decodeVBytes(postingList, from, result, count);
         return result;
     }
+
+    /**
+     * Skip over {@code count} values starting at postingList[from] without
+     * decoding them.
+     *
+     * @return the index of the byte following the last skipped value.
+     */
+    public static int skipVBytes(byte[] postingList, int from, int count) {
+        int i = from;
+        while (count > 0) {
+            if ((postingList[i++] & STOP_BIT) != 0) count--;
+        }
+        return i;
+    }
 }
@@ -0,0 +1,227 @@
+package edu.nyu.cs.cs2580.helper;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the file names of the corpus to doc ids and back, straight from a
+ * memory mapped file. Nothing but the header is loaded on the heap, and a
+ * single reader may be shared by any number of threads.
+ * <p/>
+ * Names are sorted by their UTF-8 bytes and front coded in blocks of
+ * BLOCK_SIZE: the first name of a block is stored whole, every other one as
+ * the length of the prefix it shares with the previous name plus the rest.
+ * Finding a name is a binary search over the first names of the blocks and a
+ * scan of one block. Finding the name of a doc id goes through a table giving
+ * the position of every doc id in sorted order.
+ * <pre>
+ *   int numNames
+ *   int maxDocId
+ *   int[numBlocks] blockStart     -- offset of every block in the block data
+ *   int[maxDocId + 1] position    -- -1 if the doc id isn't used
+ *   block data, per name: VByte sharedLength, VByte suffixLength, suffix, VByte docId
+ * </pre>
+ */
+public class FilenameTable {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int HEADER_BYTES = 4 + 4;
+
+    private static final Comparator<byte[]> UNSIGNED_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            return FilenameTable.compare(a, 0, a.length, b);
+        }
+    };
+
+    public static void write(File file, Map<String, Long> docIdByFilename) throws IOException {
+        List<byte[]> names = new ArrayList<byte[]>();
+        Map<byte[], Long> docIds = new IdentityHashMap<byte[], Long>();
+        int maxDocId = 0;
+        for (Map.Entry<String, Long> entry : docIdByFilename.entrySet()) {
+            byte[] name = entry.getKey().getBytes("UTF-8");
+            names.add(name);
+            docIds.put(name, entry.getValue());
+            maxDocId = Math.max(maxDocId, entry.getValue().intValue());
+        }
+        byte[][] sorted = names.toArray(new byte[names.size()][]);
+        Arrays.sort(sorted, UNSIGNED_ORDER);
+
+        int numBlocks = (sorted.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] blockStarts = new int[numBlocks];
+        int[] positions = new int[maxDocId + 1];
+        Arrays.fill(positions, -1);
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        byte[] previous = new byte[0];
+        for (int i = 0; i < sorted.length; i++) {
+            byte[] name = sorted[i];
+            int shared = 0;
+            if (i % BLOCK_SIZE == 0) {
+                blockStarts[i / BLOCK_SIZE] = blocks.size();
+            } else {
+                int max = Math.min(previous.length, name.length);
+                while (shared < max && previous[shared] == name[shared]) shared++;
+            }
+            int docId = docIds.get(name).intValue();
+            positions[docId] = i;
+            blocks.write(Compressor.convertToVBytes(new int[]{shared, name.length - shared}));
+            blocks.write(name, shared, name.length - shared);
+            blocks.write(Compressor.convertToVBytes(docId));
+            previous = name;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(sorted.length);
+        out.writeInt(maxDocId);
+        for (int start : blockStarts) out.writeInt(start);
+        for (int position : positions) out.writeInt(position);
+        blocks.writeTo(out);
+        out.close();
+        System.out.println("Wrote " + sorted.length + " file names to " + file);
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int numNames;
+    private final int maxDocId;
+    private final int numBlocks;
+    private final int positionsOffset;
+    private final int blocksOffset;
+
+    private FilenameTable(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        numNames = buffer.getInt(0);
+        maxDocId = buffer.getInt(4);
+        numBlocks = (numNames + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        positionsOffset = HEADER_BYTES + 4 * numBlocks;
+        blocksOffset = positionsOffset + 4 * (maxDocId + 1);
+    }
+
+    public static FilenameTable open(File file) throws IOException {
+        RandomAccessFile tableFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = tableFile.getChannel();
+            return new FilenameTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            tableFile.close();
+        }
+    }
+
+    public int size() {
+        return numNames;
+    }
+
+    /**
+     * @return the doc id of {@code filename}, or -1 if it has none.
+     */
+    public long getDocId(String filename) {
+        if (numNames == 0) return -1;
+        byte[] key;
+        try {
+            key = filename.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // Should never happen.
+        }
+        // Last block whose first name is <= key.
+        int low = 0, high = numBlocks - 1;
+        byte[] name = new byte[64];
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            Cursor cursor = new Cursor(mid);
+            name = cursor.next(name);
+            if (compare(name, 0, cursor.length, key) <= 0) low = mid;
+            else high = mid - 1;
+        }
+        Cursor cursor = new Cursor(low);
+        for (int i = low * BLOCK_SIZE; i < Math.min((low + 1) * BLOCK_SIZE, numNames); i++) {
+            name = cursor.next(name);
+            int order = compare(name, 0, cursor.length, key);
+            if (order == 0) return cursor.docId;
+            if (order > 0) break;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the file name of {@code docId}, or null if it has none.
+     */
+    public String getFilename(long docId) {
+        if (docId < 0 || docId > maxDocId) return null;
+        int position = buffer.getInt(positionsOffset + 4 * (int) docId);
+        if (position < 0) return null;
+        Cursor cursor = new Cursor(position / BLOCK_SIZE);
+        byte[] name = new byte[64];
+        for (int i = 0; i <= position % BLOCK_SIZE; i++) name = cursor.next(name);
+        try {
+            return new String(name, 0, cursor.length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // Should never happen.
+        }
+    }
+
+    /**
+     * Every file name and its doc id, to write an updated table.
+     */
+    public Map<String, Long> toMap() {
+        Map<String, Long> docIdByFilename = new HashMap<String, Long>();
+        byte[] name = new byte[64];
+        for (int block = 0; block < numBlocks; block++) {
+            Cursor cursor = new Cursor(block);
+            for (int i = block * BLOCK_SIZE; i < Math.min((block + 1) * BLOCK_SIZE, numNames); i++) {
+                name = cursor.next(name);
+                try {
+                    docIdByFilename.put(new String(name, 0, cursor.length, "UTF-8"), (long) cursor.docId);
+                } catch (UnsupportedEncodingException e) {
+                    throw new RuntimeException(e); // Should never happen.
+                }
+            }
+        }
+        return docIdByFilename;
+    }
+
+    /**
+     * Decodes the names of one block in order.
+     */
+    private class Cursor {
+        private final ByteBuffer view = buffer.duplicate();
+        // Length and doc id of the last decoded name.
+        int length = 0;
+        int docId = -1;
+
+        Cursor(int block) {
+            view.position(blocksOffset + buffer.getInt(HEADER_BYTES + 4 * block));
+        }
+
+        /**
+         * Decode the next name into {@code name}, which holds the previous one.
+         *
+         * @return {@code name}, or a bigger copy of it if it was too small.
+         */
+        byte[] next(byte[] name) {
+            int shared = Compressor.readVByte(view);
+            int suffix = Compressor.readVByte(view);
+            length = shared + suffix;
+            if (name.length < length) name = Arrays.copyOf(name, 2 * length);
+            view.get(name, shared, suffix);
+            docId = Compressor.readVByte(view);
+            return name;
+        }
+    }
+
+    private static int compare(byte[] a, int from, int to, byte[] b) {
+        int length = Math.min(to - from, b.length);
+        for (int i = 0; i < length; i++) {
+            int order = (a[from + i] & 0xFF) - (b[i] & 0xFF);
+            if (order != 0) return order;
+        }
+        return (to - from) - b.length;
+    }
+}
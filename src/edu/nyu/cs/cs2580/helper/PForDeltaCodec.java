@@ -0,0 +1,144 @@
+package edu.nyu.cs.cs2580.helper;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Patched frame-of-reference bit packing (PForDelta).
+ * <p/>
+ * Values are cut into frames of FRAME_SIZE. Each frame picks the bit width b
+ * that makes it smallest, packs the low b bits of every value, and stores the
+ * remaining high bits of the few values that don't fit as exceptions:
+ * <pre>
+ *   byte b
+ *   byte numExceptions
+ *   ceil(numValues * b / 8) bytes of packed values, least significant bit first
+ *   per exception: byte index, VByte (value >>> b)
+ * </pre>
+ * Since the values are gaps, most of them are small and share a narrow width,
+ * and a whole frame decodes with a tight loop into an int[].
+ */
+public class PForDeltaCodec implements PostingsCodec {
+
+    public static final String NAME = "pfordelta";
+    public static final int FRAME_SIZE = 128;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(int[] values, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count + 8);
+        for (int from = 0; from < count; from += FRAME_SIZE) {
+            encodeFrame(values, from, Math.min(from + FRAME_SIZE, count), out);
+        }
+        return out.toByteArray();
+    }
+
+    private void encodeFrame(int[] values, int from, int to, ByteArrayOutputStream out) {
+        int b = bestBitWidth(values, from, to);
+        int numExceptions = 0;
+        for (int i = from; i < to; i++) {
+            if (bitWidth(values[i]) > b) numExceptions++;
+        }
+        out.write(b);
+        out.write(numExceptions);
+
+        long mask = (1L << b) - 1;
+        long buffer = 0;
+        int bits = 0;
+        for (int i = from; i < to; i++) {
+            buffer |= (values[i] & mask) << bits;
+            bits += b;
+            while (bits >= 8) {
+                out.write((int) (buffer & 0xFF));
+                buffer >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0) out.write((int) (buffer & 0xFF));
+
+        for (int i = from; i < to; i++) {
+            if (bitWidth(values[i]) > b) {
+                out.write(i - from);
+                byte[] high = Compressor.convertToVBytes(values[i] >>> b);
+                out.write(high, 0, high.length);
+            }
+        }
+    }
+
+    /**
+     * The bit width which gives the smallest frame once exceptions are paid for.
+     */
+    private int bestBitWidth(int[] values, int from, int to) {
+        int best = 32;
+        long bestBytes = Long.MAX_VALUE;
+        for (int b = 0; b <= 32; b++) {
+            long bytes = ((long) (to - from) * b + 7) / 8;
+            for (int i = from; i < to && bytes < bestBytes; i++) {
+                if (bitWidth(values[i]) > b) bytes += 1 + vByteLength(values[i] >>> b);
+            }
+            if (bytes < bestBytes) {
+                bestBytes = bytes;
+                best = b;
+            }
+        }
+        return best;
+    }
+
+    private static int bitWidth(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    private static int vByteLength(int value) {
+        return Math.max(1, (bitWidth(value) + 6) / 7);
+    }
+
+    @Override
+    public int decode(byte[] in, int offset, int[] out, int count) {
+        for (int from = 0; from < count; from += FRAME_SIZE) {
+            offset = decodeFrame(in, offset, out, from, Math.min(from + FRAME_SIZE, count));
+        }
+        return offset;
+    }
+
+    /**
+     * Values are bit packed by frame, with exceptions at the end of the frame,
+     * so a frame is only ever decoded as a whole.
+     */
+    @Override
+    public int skip(byte[] in, int offset, int count) {
+        return -1;
+    }
+
+    private int decodeFrame(byte[] in, int offset, int[] out, int from, int to) {
+        int b = in[offset++] & 0xFF;
+        int numExceptions = in[offset++] & 0xFF;
+
+        long mask = (1L << b) - 1;
+        long buffer = 0;
+        int bits = 0;
+        for (int i = from; i < to; i++) {
+            while (bits < b) {
+                buffer |= (long) (in[offset++] & 0xFF) << bits;
+                bits += 8;
+            }
+            out[i] = (int) (buffer & mask);
+            buffer >>>= b;
+            bits -= b;
+        }
+
+        for (int e = 0; e < numExceptions; e++) {
+            int index = from + (in[offset++] & 0xFF);
+            int high = 0;
+            while (true) {
+                byte next = in[offset++];
+                high = (high << 7) | (next & 0x7F);
+                if ((next & 0x80) != 0) break;
+            }
+            out[index] |= high << b;
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,93 @@
+package edu.nyu.cs.cs2580.helper;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * PageRank scores written by the miner, as a dense float array indexed by doc
+ * id. The file is little-endian and memory mapped when read:
+ * <pre>
+ *   int MAGIC
+ *   float lambda
+ *   int iterations
+ *   int maxDocId
+ *   float[maxDocId + 1] pageRank   -- 0 for doc ids without a score
+ * </pre>
+ */
+public class PageRanks {
+
+    private static final int MAGIC = 0x50524b31; // "PRK1"
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4;
+
+    public static void write(File file, Map<Long, Float> ranks, float lambda, int iterations) throws IOException {
+        int maxDocId = 0;
+        for (long docId : ranks.keySet()) maxDocId = Math.max(maxDocId, (int) docId);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 * (maxDocId + 1)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putFloat(lambda);
+        buffer.putInt(iterations);
+        buffer.putInt(maxDocId);
+        for (Map.Entry<Long, Float> rank : ranks.entrySet()) {
+            buffer.putFloat(HEADER_BYTES + 4 * rank.getKey().intValue(), rank.getValue());
+        }
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(buffer.array());
+        } finally {
+            out.close();
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final float lambda;
+    private final int iterations;
+    private final int maxDocId;
+
+    private PageRanks(MappedByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC) throw new IOException("Not a PageRank file");
+        this.buffer = buffer;
+        lambda = buffer.getFloat(4);
+        iterations = buffer.getInt(8);
+        maxDocId = buffer.getInt(12);
+    }
+
+    public static PageRanks open(File file) throws IOException {
+        RandomAccessFile pageRankFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = pageRankFile.getChannel();
+            return new PageRanks(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            pageRankFile.close();
+        }
+    }
+
+    /**
+     * @return the PageRank of {@code docId}, 0 if it has none.
+     */
+    public float get(long docId) {
+        if (docId < 0 || docId > maxDocId) return 0;
+        return buffer.getFloat(HEADER_BYTES + 4 * (int) docId);
+    }
+
+    public float getLambda() {
+        return lambda;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Number of doc ids covered, including those without a score.
+     */
+    public int size() {
+        return maxDocId + 1;
+    }
+}
@@ -0,0 +1,56 @@
+package edu.nyu.cs.cs2580.helper;
+
+/**
+ * Compresses the integer streams of a posting list (doc id gaps, number of
+ * occurrences and occurrence gaps).
+ * <p/>
+ * A codec never writes the number of values it encoded. The reader always knows
+ * it from the surrounding structure (e.g. the number of documents in a block),
+ * which lets codecs work on whole blocks of integers at a time.
+ * <p/>
+ * Use {@link PostingsCodec.Factory} to get a codec by the name used in
+ * engine.conf and recorded in the index.
+ */
+public interface PostingsCodec {
+
+    /**
+     * Name recorded in the index so the same codec is used to read it back.
+     */
+    String getName();
+
+    /**
+     * Encode values[0, count).
+     */
+    byte[] encode(int[] values, int count);
+
+    /**
+     * Decode {@code count} values starting at in[offset] into out[0, count).
+     *
+     * @return the offset of the first byte after the decoded values.
+     */
+    int decode(byte[] in, int offset, int[] out, int count);
+
+    /**
+     * Skip {@code count} values starting at in[offset] without decoding them.
+     *
+     * @return the offset of the first byte after them, or -1 if this codec
+     * can only decode a stream as a whole.
+     */
+    int skip(byte[] in, int offset, int count);
+
+    /**
+     * All codecs must be created through this factory class.
+     */
+    public static class Factory {
+        public static final String DEFAULT = VByteCodec.NAME;
+
+        public static PostingsCodec getCodecByName(String name) {
+            if (name.equals(VByteCodec.NAME)) {
+                return new VByteCodec();
+            } else if (name.equals(PForDeltaCodec.NAME)) {
+                return new PForDeltaCodec();
+            }
+            return null;
+        }
+    }
+}
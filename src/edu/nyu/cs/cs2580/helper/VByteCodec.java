@@ -0,0 +1,30 @@
+package edu.nyu.cs.cs2580.helper;
+
+/**
+ * The VByte format of {@link Compressor}: 7 bits per byte, most significant
+ * group first, with the high bit set on the last byte of every value.
+ */
+public class VByteCodec implements PostingsCodec {
+
+    public static final String NAME = "vbyte";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(int[] values, int count) {
+        return Compressor.convertToVBytes(values, count);
+    }
+
+    @Override
+    public int decode(byte[] in, int offset, int[] out, int count) {
+        return Compressor.decodeVBytes(in, offset, out, count);
+    }
+
+    @Override
+    public int skip(byte[] in, int offset, int count) {
+        return Compressor.skipVBytes(in, offset, count);
+    }
+}
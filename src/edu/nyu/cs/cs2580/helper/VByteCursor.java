@@ -0,0 +1,52 @@
+package edu.nyu.cs.cs2580.helper;
+
+/**
+ * Decodes a VByte stream (see {@link Compressor}) one value at a time, without
+ * allocating anything per value.
+ */
+public class VByteCursor {
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+
+    /**
+     * Cursor over the values stored in bytes[from, to).
+     */
+    public VByteCursor(byte[] bytes, int from, int to) {
+        this.bytes = bytes;
+        this.position = from;
+        this.end = to;
+    }
+
+    public VByteCursor(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    public boolean hasNext() {
+        return position < end;
+    }
+
+    public int next() {
+        int result = 0;
+        byte b;
+        do {
+            b = bytes[position++];
+            result = (result << 7) | (b & 0x7F);
+        } while ((b & 0x80) == 0);
+        return result;
+    }
+
+    /**
+     * Skip over the next {@code count} values without decoding them.
+     */
+    public void skip(int count) {
+        position = Compressor.skipVBytes(bytes, position, count);
+    }
+
+    /**
+     * Index in the underlying array of the next value's first byte.
+     */
+    public int position() {
+        return position;
+    }
+}
@@ -0,0 +1,142 @@
+package edu.nyu.cs.cs2580.index;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The best documents with any of several tokens, scored by the weighted sum
+ * of their numbers of occurrences, found with Block-Max WAND (Ding and Suel,
+ * "Faster top-k document retrieval using block-max indexes", 2011).
+ * <p/>
+ * The cursors are kept in order of their current document. Summing the
+ * largest score of every list in that order, the pivot is the document of
+ * the first cursor where the sum beats the k-th best score found so far: no
+ * document before it can make the top k. The largest numbers of occurrences
+ * in the blocks of the skip tables (see {@link PostingList}) then give a
+ * tighter bound for the pivot. When even that can't beat the k-th score, the
+ * cursors jump past the end of the first of those blocks to end, without
+ * decoding anything. Only the documents passing both bounds are scored.
+ */
+public class BlockMaxWand {
+
+    /**
+     * A document and its score.
+     */
+    public static class Hit {
+        public final int docId;
+        public final double score;
+
+        Hit(int docId, double score) {
+            this.docId = docId;
+            this.score = score;
+        }
+    }
+
+    // Worst hit first: lowest score, then latest document.
+    static final Comparator<Hit> WORST_FIRST = new Comparator<Hit>() {
+        @Override
+        public int compare(Hit h1, Hit h2) {
+            int order = Double.compare(h1.score, h2.score);
+            return order != 0 ? order : h2.docId - h1.docId;
+        }
+    };
+
+    private final PostingsCursor[] cursors;
+    private final double[] weights;
+    // Largest score every list can give a document.
+    private final double[] upperBounds;
+    private int numScored = 0;
+
+    /**
+     * @param cursors new cursors over the posting lists of the tokens.
+     * @param weights score of one occurrence of every token.
+     */
+    public BlockMaxWand(List<PostingsCursor> cursors, double[] weights) {
+        this.cursors = cursors.toArray(new PostingsCursor[cursors.size()]);
+        this.weights = weights;
+        upperBounds = new double[weights.length];
+        for (int t = 0; t < weights.length; t++) upperBounds[t] = this.cursors[t].maxTermFrequency() * weights[t];
+    }
+
+    /**
+     * The {@code k} documents of highest score, in no particular order. Of
+     * documents with the same score, the first ones are kept.
+     */
+    public List<Hit> topDocs(int k) {
+        PriorityQueue<Hit> heap = new PriorityQueue<Hit>(Math.max(k, 1) + 1, WORST_FIRST);
+        int n = cursors.length;
+        // Cursors by current doc id.
+        int[] order = new int[n];
+        for (int t = 0; t < n; t++) {
+            order[t] = t;
+            cursors[t].nextDoc();
+        }
+
+        while (k > 0) {
+            sortByDocId(order);
+            double threshold = heap.size() < k ? 0 : heap.peek().score;
+
+            int pivot = -1;
+            double bound = 0;
+            for (int i = 0; i < n && cursors[order[i]].docId() != PostingsCursor.NO_MORE_DOCS; i++) {
+                bound += upperBounds[order[i]];
+                if (bound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) break;
+            int pivotDoc = cursors[order[pivot]].docId();
+            while (pivot + 1 < n && cursors[order[pivot + 1]].docId() == pivotDoc) pivot++;
+
+            // Bound the pivot by the blocks holding it. Every document before
+            // the end of the first of those blocks to end, and before the
+            // next cursor, is bounded by it as well.
+            double blockBound = 0;
+            int next = pivot + 1 < n ? cursors[order[pivot + 1]].docId() : PostingsCursor.NO_MORE_DOCS;
+            for (int i = 0; i <= pivot; i++) {
+                PostingsCursor cursor = cursors[order[i]];
+                int lastDocId = cursor.shallowAdvance(pivotDoc);
+                blockBound += cursor.blockMaxTermFrequency() * weights[order[i]];
+                if (lastDocId != PostingsCursor.NO_MORE_DOCS) next = Math.min(next, lastDocId + 1);
+            }
+
+            if (blockBound <= threshold) {
+                for (int i = 0; i <= pivot; i++) cursors[order[i]].advance(next);
+            } else if (cursors[order[0]].docId() == pivotDoc) {
+                double score = 0;
+                for (int t = 0; t < n; t++) {
+                    if (cursors[t].docId() == pivotDoc) score += cursors[t].termFrequency() * weights[t];
+                }
+                numScored++;
+                if (heap.size() < k || score > threshold) {
+                    heap.add(new Hit(pivotDoc, score));
+                    if (heap.size() > k) heap.poll();
+                }
+                for (int i = 0; i <= pivot; i++) cursors[order[i]].nextDoc();
+            } else {
+                for (int i = 0; i < pivot; i++) cursors[order[i]].advance(pivotDoc);
+            }
+        }
+        return new ArrayList<Hit>(heap);
+    }
+
+    /**
+     * Number of documents fully scored by the last topDocs(int).
+     */
+    public int numScored() {
+        return numScored;
+    }
+
+    private void sortByDocId(int[] order) {
+        // Few tokens, mostly in order already.
+        for (int i = 1; i < order.length; i++) {
+            int t = order[i];
+            int j = i - 1;
+            for (; j >= 0 && cursors[order[j]].docId() > cursors[t].docId(); j--) order[j + 1] = order[j];
+            order[j + 1] = t;
+        }
+    }
+}
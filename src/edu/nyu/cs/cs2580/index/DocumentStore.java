@@ -0,0 +1,181 @@
+package edu.nyu.cs.cs2580.index;
+
+import edu.nyu.cs.cs2580.models.DocumentIndexed;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+/**
+ * Per document information needed while serving, stored column by column.
+ * PageRank scores are kept apart by the miner, see {@link edu.nyu.cs.cs2580.helper.PageRanks}.
+ * <p/>
+ * Written once for every index segment and memory mapped while serving, so
+ * loading the index doesn't depend on the number of documents. Every column
+ * is indexed by doc id, from the first to the last doc id of the segment. A
+ * {@link DocumentIndexed} is only built for the documents a query actually
+ * returns.
+ * <p/>
+ * The file layout is:
+ * <pre>
+ *   int numDocs
+ *   int firstDocId
+ *   int lastDocId
+ *   long totalTermFrequency
+ *   int[numIds] length         -- number of tokens, -1 if the doc id isn't used
+ *   int[numIds + 1] urlStart   -- offset of every url in the url blob
+ *   int[numIds + 1] titleStart -- offset of every title in the title blob
+ *   url blob (UTF-8)
+ *   title blob (UTF-8)
+ * </pre>
+ */
+public class DocumentStore {
+
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 8;
+
+    /**
+     * Write the documents collected while indexing to {@code storeFile}.
+     */
+    public static void write(File storeFile, Map<Long, DocumentIndexed> documents) throws IOException {
+        int firstDocId = Integer.MAX_VALUE, lastDocId = 0;
+        long totalTermFrequency = 0;
+        for (DocumentIndexed doc : documents.values()) {
+            firstDocId = Math.min(firstDocId, (int) doc._docid);
+            lastDocId = Math.max(lastDocId, (int) doc._docid);
+            totalTermFrequency += doc.size;
+        }
+        if (documents.isEmpty()) firstDocId = 1;
+        int numIds = lastDocId - firstDocId + 1;
+
+        int[] lengths = new int[numIds];
+        int[] urlStarts = new int[numIds + 1];
+        int[] titleStarts = new int[numIds + 1];
+        ByteArrayOutputStream urls = new ByteArrayOutputStream();
+        ByteArrayOutputStream titles = new ByteArrayOutputStream();
+        for (int i = 0; i < numIds; i++) {
+            urlStarts[i] = urls.size();
+            titleStarts[i] = titles.size();
+            DocumentIndexed doc = documents.get((long) (firstDocId + i));
+            if (doc == null) {
+                lengths[i] = -1;
+                continue;
+            }
+            lengths[i] = (int) doc.size;
+            urls.write(doc.getUrl().getBytes("UTF-8"));
+            if (doc.getTitle() != null) titles.write(doc.getTitle().getBytes("UTF-8"));
+        }
+        urlStarts[numIds] = urls.size();
+        titleStarts[numIds] = titles.size();
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(storeFile)));
+        out.writeInt(documents.size());
+        out.writeInt(firstDocId);
+        out.writeInt(lastDocId);
+        out.writeLong(totalTermFrequency);
+        for (int length : lengths) out.writeInt(length);
+        for (int start : urlStarts) out.writeInt(start);
+        for (int start : titleStarts) out.writeInt(start);
+        urls.writeTo(out);
+        titles.writeTo(out);
+        out.close();
+        System.out.println("Wrote " + documents.size() + " documents to " + storeFile);
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int numDocs;
+    private final int firstDocId;
+    private final int lastDocId;
+    private final long totalTermFrequency;
+    // Byte offsets of the columns and blobs.
+    private final int lengthsOffset;
+    private final int urlStartsOffset;
+    private final int titleStartsOffset;
+    private final int urlsOffset;
+    private final int titlesOffset;
+
+    private DocumentStore(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        numDocs = buffer.getInt(0);
+        firstDocId = buffer.getInt(4);
+        lastDocId = buffer.getInt(8);
+        totalTermFrequency = buffer.getLong(12);
+        int numIds = lastDocId - firstDocId + 1;
+        lengthsOffset = HEADER_BYTES;
+        urlStartsOffset = lengthsOffset + 4 * numIds;
+        titleStartsOffset = urlStartsOffset + 4 * (numIds + 1);
+        urlsOffset = titleStartsOffset + 4 * (numIds + 1);
+        titlesOffset = urlsOffset + buffer.getInt(urlStartsOffset + 4 * numIds);
+    }
+
+    public static DocumentStore open(File storeFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(storeFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return new DocumentStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            file.close();
+        }
+    }
+
+    public int numDocs() {
+        return numDocs;
+    }
+
+    public long totalTermFrequency() {
+        return totalTermFrequency;
+    }
+
+    public int firstDocId() {
+        return firstDocId;
+    }
+
+    public int lastDocId() {
+        return lastDocId;
+    }
+
+    public boolean contains(int docId) {
+        return docId >= firstDocId && docId <= lastDocId && length(docId) >= 0;
+    }
+
+    /**
+     * Number of tokens in the document.
+     */
+    public int length(int docId) {
+        return buffer.getInt(lengthsOffset + 4 * (docId - firstDocId));
+    }
+
+    public String url(int docId) {
+        return string(urlsOffset, urlStartsOffset, docId);
+    }
+
+    public String title(int docId) {
+        return string(titlesOffset, titleStartsOffset, docId);
+    }
+
+    private String string(int blobOffset, int startsOffset, int docId) {
+        int i = docId - firstDocId;
+        int start = buffer.getInt(startsOffset + 4 * i);
+        byte[] bytes = new byte[buffer.getInt(startsOffset + 4 * (i + 1)) - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(blobOffset + start);
+        view.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // Should never happen.
+        }
+    }
+
+    /**
+     * A new view of the document.
+     *
+     * @return null if no document has this doc id.
+     */
+    public DocumentIndexed getDocument(int docId) {
+        if (!contains(docId)) return null;
+        return new DocumentIndexed(url(docId), docId, length(docId), title(docId));
+    }
+}
@@ -0,0 +1,223 @@
+package edu.nyu.cs.cs2580.index;
+
+import edu.nyu.cs.cs2580.helper.Compressor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * The terms of every document of an index segment with their frequencies, so
+ * pseudo relevance feedback and the like don't have to parse the corpus
+ * again. Written with forward_index, next to the lexicon of the segment.
+ * <p/>
+ * Terms are numbered by their position in the lexicon of the segment and
+ * stored in increasing order. The file is memory mapped while serving, so a
+ * term vector is found with one lookup in the offset table:
+ * <pre>
+ *   int firstDocId
+ *   int lastDocId
+ *   int[numIds] start   -- offset of every vector in the vector data, -1 if the doc id has none
+ *   vector data, per document: VByte numTerms, numTerms x (VByte termId gap, VByte tf)
+ * </pre>
+ * Being mapped as one buffer, the file can't reach 2 GB: a segment with more
+ * term vectors than that needs to be split.
+ * <p/>
+ * Term numbers are only known once the lexicon is written. Until then every
+ * indexing thread writes the term vectors of its documents, with the terms
+ * spelled out, to a run file next to each of its temporary index files:
+ * <pre>
+ *   per document: int docId, int numTerms, numTerms x (UTF term, int tf)
+ * </pre>
+ */
+public class ForwardIndex {
+
+    public static final String FILENAME = "/forward.idx";
+    public static final String RUN_PREFIX = "forward_run_";
+    private static final int HEADER_BYTES = 4 + 4;
+
+    public static void writeRun(File file, Map<Integer, Map<String, Integer>> termVectors) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        for (Map.Entry<Integer, Map<String, Integer>> vector : termVectors.entrySet()) {
+            out.writeInt(vector.getKey());
+            out.writeInt(vector.getValue().size());
+            for (Map.Entry<String, Integer> term : vector.getValue().entrySet()) {
+                out.writeUTF(term.getKey());
+                out.writeInt(term.getValue());
+            }
+        }
+        out.close();
+    }
+
+    /**
+     * Write the forward index of the segment in {@code directory} from the run
+     * files of its indexing threads, and delete them.
+     */
+    public static void writeFromRuns(String directory, Lexicon lexicon) throws IOException {
+        DocumentStore documents = DocumentStore.open(new File(directory + Indexer.DOCUMENT_STORE));
+        Writer writer = new Writer(new File(directory + FILENAME), lexicon, documents.firstDocId(), documents.lastDocId());
+        File[] files = new File(directory).listFiles();
+        List<File> runs = new ArrayList<File>();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().startsWith(RUN_PREFIX)) runs.add(f);
+            }
+        }
+        for (File run : runs) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+            try {
+                while (true) {
+                    int docId;
+                    try {
+                        docId = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    Map<String, Integer> termFrequencies = new HashMap<String, Integer>();
+                    for (int numTerms = in.readInt(); numTerms > 0; numTerms--) {
+                        termFrequencies.put(in.readUTF(), in.readInt());
+                    }
+                    writer.add(docId, termFrequencies);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        writer.close();
+        for (File run : runs) run.delete();
+    }
+
+    /**
+     * Writes a forward index. Documents may be added in any order: their
+     * vectors go to a temporary file as they come, and only the offset table
+     * is held in memory until close().
+     */
+    public static class Writer {
+        private final File file;
+        private final File vectorsFile;
+        private final Lexicon lexicon;
+        private final int firstDocId;
+        private final int lastDocId;
+        // Offset of the vector of every doc id from firstDocId, -1 for none.
+        private final int[] starts;
+        private final DataOutputStream vectors;
+        private int numVectors = 0;
+
+        /**
+         * @param firstDocId first doc id which may be added.
+         * @param lastDocId  last doc id which may be added.
+         */
+        public Writer(File file, Lexicon lexicon, int firstDocId, int lastDocId) throws IOException {
+            this.file = file;
+            this.lexicon = lexicon;
+            this.firstDocId = firstDocId;
+            this.lastDocId = lastDocId;
+            starts = new int[Math.max(lastDocId - firstDocId + 1, 0)];
+            Arrays.fill(starts, -1);
+            vectorsFile = new File(file.getPath() + ".tmp");
+            vectors = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(vectorsFile)));
+        }
+
+        /**
+         * Terms which aren't in the lexicon are left out.
+         */
+        public void add(int docId, Map<String, Integer> termFrequencies) throws IOException {
+            if (docId < firstDocId || docId > lastDocId) {
+                throw new IllegalArgumentException("Doc id " + docId + " out of " + firstDocId + "-" + lastDocId);
+            }
+            long[] terms = new long[termFrequencies.size()];
+            int numTerms = 0;
+            for (Map.Entry<String, Integer> term : termFrequencies.entrySet()) {
+                int termId = lexicon.indexOf(term.getKey());
+                if (termId >= 0) terms[numTerms++] = ((long) termId << 32) | term.getValue();
+            }
+            Arrays.sort(terms, 0, numTerms);
+            int[] values = new int[1 + 2 * numTerms];
+            values[0] = numTerms;
+            for (int i = 0, previous = 0; i < numTerms; i++) {
+                int termId = (int) (terms[i] >>> 32);
+                values[1 + 2 * i] = termId - previous;
+                values[2 + 2 * i] = (int) terms[i];
+                previous = termId;
+            }
+            byte[] vector = Compressor.convertToVBytes(values);
+            // DataOutputStream.size() stops counting at Integer.MAX_VALUE.
+            if ((long) vectors.size() + vector.length > Integer.MAX_VALUE - HEADER_BYTES - 4L * starts.length) {
+                throw new IOException("Term vectors of " + file + " don't fit in 2 GB");
+            }
+            starts[docId - firstDocId] = vectors.size();
+            vectors.write(vector);
+            numVectors++;
+        }
+
+        /**
+         * Write the offset table followed by the vectors to the file, and
+         * delete the temporary one.
+         */
+        public void close() throws IOException {
+            vectors.close();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                out.writeInt(starts.length > 0 ? firstDocId : 1);
+                out.writeInt(starts.length > 0 ? lastDocId : 0);
+                for (int start : starts) out.writeInt(start);
+                InputStream in = new BufferedInputStream(new FileInputStream(vectorsFile));
+                try {
+                    byte[] buffer = new byte[1 << 16];
+                    for (int read; (read = in.read(buffer)) > 0; ) out.write(buffer, 0, read);
+                } finally {
+                    in.close();
+                }
+            } finally {
+                out.close();
+            }
+            vectorsFile.delete();
+            System.out.println("Wrote term vectors of " + numVectors + " documents to " + file);
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int firstDocId;
+    private final int lastDocId;
+    private final int vectorsOffset;
+
+    private ForwardIndex(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        firstDocId = buffer.getInt(0);
+        lastDocId = buffer.getInt(4);
+        vectorsOffset = HEADER_BYTES + 4 * (lastDocId - firstDocId + 1);
+    }
+
+    public static ForwardIndex open(File file) throws IOException {
+        RandomAccessFile forwardFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = forwardFile.getChannel();
+            return new ForwardIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            forwardFile.close();
+        }
+    }
+
+    /**
+     * The terms of {@code docId} and their frequencies, in term order.
+     *
+     * @param lexicon the lexicon of the segment, numbering the terms.
+     * @return null if the document has no term vector.
+     */
+    public Map<String, Integer> termVector(int docId, Lexicon lexicon) {
+        if (docId < firstDocId || docId > lastDocId) return null;
+        int start = buffer.getInt(HEADER_BYTES + 4 * (docId - firstDocId));
+        if (start < 0) return null;
+        ByteBuffer vector = buffer.duplicate();
+        vector.position(vectorsOffset + start);
+        int numTerms = Compressor.readVByte(vector);
+        Map<String, Integer> termFrequencies = new LinkedHashMap<String, Integer>();
+        for (int i = 0, termId = 0; i < numTerms; i++) {
+            termId += Compressor.readVByte(vector);
+            termFrequencies.put(lexicon.getTerm(termId), Compressor.readVByte(vector));
+        }
+        return termFrequencies;
+    }
+}
@@ -0,0 +1,192 @@
+package edu.nyu.cs.cs2580.index;
+
+import edu.nyu.cs.cs2580.helper.Compressor;
+import edu.nyu.cs.cs2580.helper.PageRanks;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Walks the documents of a token in decreasing order of impact: by number of
+ * occurrences, then by PageRank. It is the order in which a ranker scoring
+ * documents by term frequency finds its best documents first.
+ * <p/>
+ * An index built with impact_ordered_postings stores, right after the doc id
+ * ordered posting list of every token, the same documents grouped by term
+ * frequency:
+ * <pre>
+ *   VByte numGroups
+ *   per group, by decreasing tf: VByte tf, VByte numDocs, numDocs x VByte docId
+ * </pre>
+ * The documents of a group are in decreasing order of the PageRank they had
+ * when the segment was written. The lists of all segments are merged on the
+ * fly, straight from the memory mapped index files, so only the documents
+ * actually returned are ever decoded. Deleted documents are skipped.
+ */
+public class ImpactCursor {
+
+    public static final int NO_MORE_DOCS = PostingsCursor.NO_MORE_DOCS;
+
+    /**
+     * Encode the impact ordered list of the documents {@code docIds}.
+     *
+     * @param pageRanks null if there are none yet.
+     */
+    public static byte[] encode(int[] docIds, final int[] termFrequencies, final PageRanks pageRanks) {
+        Integer[] order = new Integer[docIds.length];
+        final float[] ranks = new float[docIds.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            ranks[i] = pageRanks == null ? 0 : pageRanks.get(docIds[i]);
+        }
+        // Stable, so documents of equal impact stay in doc id order.
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                if (termFrequencies[i1] != termFrequencies[i2]) return termFrequencies[i2] - termFrequencies[i1];
+                return Float.compare(ranks[i2], ranks[i1]);
+            }
+        });
+
+        int[] values = new int[1 + 3 * docIds.length];
+        int count = 1, numGroups = 0;
+        for (int i = 0; i < order.length; ) {
+            int tf = termFrequencies[order[i]];
+            int end = i;
+            while (end < order.length && termFrequencies[order[end]] == tf) end++;
+            values[count++] = tf;
+            values[count++] = end - i;
+            for (; i < end; i++) values[count++] = docIds[order[i]];
+            numGroups++;
+        }
+        values[0] = numGroups;
+        return Compressor.convertToVBytes(values, count);
+    }
+
+    /**
+     * The impact ordered list of one segment, positioned on its next live
+     * document.
+     */
+    private static class SegmentImpacts {
+        private final ByteBuffer bytes;
+        // Null if no document of the segment is deleted.
+        private final LiveDocs liveDocs;
+        private int groupsLeft;
+        private int docsLeft = 0;
+        int termFrequency = 0;
+        int docId = NO_MORE_DOCS;
+        float pageRank = 0;
+
+        SegmentImpacts(ByteBuffer bytes, LiveDocs liveDocs, PageRanks pageRanks) {
+            this.bytes = bytes;
+            this.liveDocs = liveDocs;
+            groupsLeft = Compressor.readVByte(bytes);
+            next(pageRanks);
+        }
+
+        void next(PageRanks pageRanks) {
+            while (true) {
+                while (docsLeft == 0) {
+                    if (groupsLeft == 0) {
+                        docId = NO_MORE_DOCS;
+                        termFrequency = 0;
+                        return;
+                    }
+                    groupsLeft--;
+                    termFrequency = Compressor.readVByte(bytes);
+                    docsLeft = Compressor.readVByte(bytes);
+                }
+                docsLeft--;
+                int next = Compressor.readVByte(bytes);
+                if (liveDocs == null || liveDocs.isLive(next)) {
+                    docId = next;
+                    pageRank = pageRanks.get(next);
+                    return;
+                }
+            }
+        }
+
+        boolean before(SegmentImpacts other) {
+            if (termFrequency != other.termFrequency) return termFrequency > other.termFrequency;
+            return pageRank > other.pageRank;
+        }
+    }
+
+    private final SegmentImpacts[] lists;
+    private final PageRanks pageRanks;
+    private int docId = -1;
+    private int termFrequency = 0;
+
+    /**
+     * @param lists    the impact ordered lists of the token in every segment holding it.
+     * @param liveDocs the deleted documents of those segments, null for none.
+     */
+    ImpactCursor(List<ByteBuffer> lists, List<LiveDocs> liveDocs, PageRanks pageRanks) {
+        this.pageRanks = pageRanks;
+        this.lists = new SegmentImpacts[lists.size()];
+        for (int i = 0; i < this.lists.length; i++) {
+            this.lists[i] = new SegmentImpacts(lists.get(i), liveDocs.get(i), pageRanks);
+        }
+    }
+
+    /**
+     * @return the current doc id, -1 before the first call to nextDoc(), and
+     * NO_MORE_DOCS once the list is exhausted.
+     */
+    public int docId() {
+        return docId;
+    }
+
+    /**
+     * Number of occurrences of the token in the current document.
+     */
+    public int termFrequency() {
+        return termFrequency;
+    }
+
+    /**
+     * Move to the document of next highest impact.
+     */
+    public int nextDoc() {
+        SegmentImpacts head = head();
+        if (head == null) {
+            docId = NO_MORE_DOCS;
+            termFrequency = 0;
+            return docId;
+        }
+        docId = head.docId;
+        termFrequency = head.termFrequency;
+        head.next(pageRanks);
+        return docId;
+    }
+
+    /**
+     * Largest term frequency of the documents not returned yet, 0 if there
+     * are none left.
+     */
+    public int maxRemainingTermFrequency() {
+        SegmentImpacts head = head();
+        return head == null ? 0 : head.termFrequency;
+    }
+
+    /**
+     * Largest PageRank of the documents not returned yet which have
+     * maxRemainingTermFrequency() occurrences, as long as the PageRanks
+     * didn't change since the index was written.
+     */
+    public float maxRemainingPageRank() {
+        SegmentImpacts head = head();
+        return head == null ? 0 : head.pageRank;
+    }
+
+    private SegmentImpacts head() {
+        SegmentImpacts head = null;
+        for (SegmentImpacts list : lists) {
+            if (list.docId == NO_MORE_DOCS) continue;
+            if (head == null || list.before(head)) head = list;
+        }
+        return head;
+    }
+}
@@ -1,57 +1,70 @@
 package edu.nyu.cs.cs2580.index;
 
+import edu.nyu.cs.cs2580.CorpusAnalyzerPagerank;
 import edu.nyu.cs.cs2580.SearchEngine;
+import edu.nyu.cs.cs2580.helper.Compressor;
+import edu.nyu.cs.cs2580.helper.PageRanks;
+import edu.nyu.cs.cs2580.helper.PostingsCodec;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Class to facilitate writing and merging temporary index files.
  * <p/>
- * Write a temporary index file with a call to write(TreeMap<String, String>),
+ * Write a temporary index file with a call to write(TreeMap<String, PostingsBuffer>),
  * where the key is a token and the value is the posting list for that token.
- * For example:
- * "hello" => 1 [2 [4 9]] 10 [1 [40]] 100 [2 [9 10]]
- * without the [] and "".
+ * It is written out in the binary {@link IndexRun} format, one entry per token.
  * <p/>
- * You should write a temporary file every IndexOrganizer.DOCS_PER_GROUP documents.
+ * The indexing threads take documents from a shared queue, and each one writes a
+ * temporary file once its postings reach its share of indexing_memory_budget.
  * <p/>
  * Once you're finished writing the temporary files (make sure to write all files!),
  * call
- * mergeDocumentIndices();
- * and
- * organizer.splitIndex();
+ * organizer.mergeAndSplit();
  * <p/>
- * The first call merges all temporary files into a single huge posting list with no
- * repeats.
+ * It merges all temporary files into posting lists with no repeats and writes
+ * them out as final index files for each some number of words.
  * <p/>
- * The second call writes out final index files for each some number of words.
+ * Along with the final index files, mergeAndSplit() writes a {@link Lexicon} which
+ * maps every token to the file and offset of its posting list.
  * <p/>
- * When processing queries, call loadIndexFor(String token). This will return a
- * TreeMap<String, String> in the same format as the argument you gave for write.
+ * When processing queries, call loadIndex() once and then loadIndexFor(String token).
+ * This will return the encoded posting list for the token.
  * <p/>
  * The caller is responsible for proper encoding of the String posting list. This class
  * does not discriminate.
+ * <p/>
+ * Every organizer works in the directory of one index segment, see {@link Segments}.
  */
 public class IndexOrganizer {
 
-    private static final String FULL_INDEX = "/full_corpus.idx";
+    public static final String LEXICON = "/lexicon.lex";
     public static final String DOC_INDEX_PREFIX = "document_index_";
     public static final String DICTIONARY_FILENAME = "dictionary";
     private static final String jsonPrefix = "js/lookup_";
 
     private static int bytesPerFinalIndex;
     private static int numMergingThreads;
-    private static String finalIndexName;
+    private static int mergeFanIn;
     SearchEngine.Options _options;
 
-    private Indexer indexer = null;
+    // Directory of the index segment this organizer writes or reads.
+    private final String directory;
+
+    // Codec of the posting lists. Taken from the options when writing an index
+    // and from the lexicon when loading one.
+    private PostingsCodec codec;
+    private Lexicon lexicon = null;
+    private MappedByteBuffer[] finalIndices = null;
 
     protected static final int TOKENS_TO_CACHE = 10;
 
@@ -62,46 +75,63 @@ public class IndexOrganizer {
         }
     };
 
-    public IndexOrganizer(SearchEngine.Options options, Indexer indexer) {
+    public IndexOrganizer(SearchEngine.Options options, String directory) {
         this._options = options;
-        finalIndexName = _options._indexPrefix + FULL_INDEX;
-        this.indexer = indexer;
+        this.directory = directory;
         bytesPerFinalIndex = options._bytes_per_final_index;
         numMergingThreads = options._num_merging_threads;
+        mergeFanIn = options._merge_fan_in;
+        codec = PostingsCodec.Factory.getCodecByName(options._postings_codec);
     }
 
-    public void write(TreeMap<String, List<Long>> postingList, String filename) {
-        try {
-            File newIndex = new File(_options._indexPrefix + "/" + filename);
-            OutputStreamWriter writer = new FileWriter(newIndex);
+    public PostingsCodec getCodec() {
+        return codec;
+    }
 
-            for (String token : postingList.keySet()) {
-                writer.write(token);
-                for (long i : postingList.get(token)) writer.write(" " + i);
-                writer.write('\n');
+    public void write(TreeMap<String, PostingsBuffer> postingList, String filename) {
+        try {
+            IndexRun.Writer writer = new IndexRun.Writer(new File(directory + "/" + filename));
+            for (Map.Entry<String, PostingsBuffer> entry : postingList.entrySet()) {
+                writer.add(entry.getValue(), entry.getKey());
             }
-            writer.flush();
             writer.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Write the term vectors of the documents inverted since the last
+     * temporary index file, see {@link ForwardIndex}.
+     */
+    public void writeTermVectors(Map<Integer, Map<String, Integer>> termVectors, String filename) {
+        try {
+            ForwardIndex.writeRun(new File(directory + "/" + filename), termVectors);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Merge all temporary index files and write the final index files and the
+     * lexicon from the result, then the forward index if there is one.
+     */
     public void mergeAndSplit() throws IOException {
         mergeDocumentIndices();
-        splitIndex();
+        if (_options._forward_index) {
+            ForwardIndex.writeFromRuns(directory, Lexicon.open(new File(directory + LEXICON)));
+        }
     }
 
 
     /**
      * Take all document group index files in the index directory and merge them
-     * into a single large file.
+     * straight into the final index.
      *
      * @throws java.io.IOException
      */
     private void mergeDocumentIndices() throws IOException {
-        String finalIndexPath = _options._indexPrefix + FULL_INDEX;
-        File indexDirectory = new File(_options._indexPrefix);
+        File indexDirectory = new File(directory);
 
         List<File> indices = Arrays.asList(indexDirectory.listFiles());
         List<File> copy = new ArrayList<File>(indices);
@@ -122,218 +152,358 @@ public class IndexOrganizer {
                 return i1 - i2;
             }
         });
-        File tempFinalIndex = mergeDocumentIndices(indices);
-        File finalIndex = new File(finalIndexPath);
-        tempFinalIndex.renameTo(finalIndex);
-    }
-
-    /**
-     * Take a list of files which contain posting lists and merge them all into a single list.
-     *
-     * @param files
-     * @return
-     */
-    private File mergeDocumentIndices(List<File> files) {
-        if (files.size() == 1) return files.get(0);
-        final List<File> firstHalf = new ArrayList<File>(files.subList(0, files.size() / 2));
-        final List<File> secondHalf = new ArrayList<File>(files.subList(files.size() / 2, files.size()));
+        // Only merge what fits in one pass at a time.
         ExecutorService executorService = Executors.newFixedThreadPool(numMergingThreads);
-        List<Future<File>> threads = new ArrayList<Future<File>>();
-        Callable<File> t1 = new Callable<File>() {
-            @Override
-            public File call() throws Exception {
-                return mergeDocumentIndices(firstHalf);
-            }
-        };
-        Callable<File> t2 = new Callable<File>() {
-            @Override
-            public File call() throws Exception {
-                return mergeDocumentIndices(secondHalf);
-            }
-        };
-        threads.add(executorService.submit(t1));
-        threads.add(executorService.submit(t2));
-
-        executorService.shutdown();
         try {
-            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            File mergedFirstHalf = threads.get(0).get();
-            File mergedSecondHalf = threads.get(1).get();
-            return mergeDocumentIndices(mergedFirstHalf, mergedSecondHalf);
+            while (indices.size() > mergeFanIn) {
+                List<Future<File>> merges = new ArrayList<Future<File>>();
+                for (int i = 0; i < indices.size(); i += mergeFanIn) {
+                    final List<File> group = new ArrayList<File>(
+                            indices.subList(i, Math.min(i + mergeFanIn, indices.size())));
+                    merges.add(executorService.submit(new Callable<File>() {
+                        @Override
+                        public File call() throws Exception {
+                            return mergeIntoRun(group);
+                        }
+                    }));
+                }
+                List<File> merged = new ArrayList<File>();
+                for (Future<File> f : merges) merged.add(f.get());
+                indices = merged;
+            }
         } catch (InterruptedException e) {
             System.err.println("Threads timed out!!");
             e.printStackTrace();
         } catch (ExecutionException e) {
             System.err.println("Execution issue...");
             e.printStackTrace();
+        } finally {
+            executorService.shutdown();
         }
-        return null;
+        mergeDocumentIndices(indices, new FinalIndexWriter());
     }
 
     /**
-     * Take two files containing posting lists and merge them into one.
-     * The two input files are deleted!
+     * Merge a list of files into a single temporary index file.
      *
-     * @param index1
-     * @param index2
-     * @return the merged posting list.
+     * @return the merged file.
      */
-    private File mergeDocumentIndices(File index1, File index2) {
-        System.out.println("Merging " + index1.getName() + " and " + index2.getName());
-        String name = index1.getName() + "_" + index2.getName();
-        name = name.replaceAll("merge_", "");
-        name = name.replaceAll(DOC_INDEX_PREFIX, "");
-        File mergedIndex = new File(index1.getParentFile(), "merge_" + name);
-        try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter(mergedIndex));
-            BufferedReader reader1 = new BufferedReader(new FileReader(index1));
-            BufferedReader reader2 = new BufferedReader(new FileReader(index2));
-            String line1 = reader1.readLine(), line2 = reader2.readLine();
-            while (line1 != null && line2 != null) {
-                String token1 = line1.substring(0, line1.indexOf(" "));
-                String token2 = line2.substring(0, line2.indexOf(" "));
-                if (token1.compareTo(token2) > 0) {
-                    writer.append(line2).append('\n');
-                    line2 = reader2.readLine();
-                } else if (token1.compareTo(token2) < 0) {
-                    writer.append(line1).append('\n');
-                    line1 = reader1.readLine();
-                } else { // The two tokens are the same.
-                    writer.append(line1).append(" ").append(line2.substring(token1.length()).trim()).append('\n');
-                    line1 = reader1.readLine();
-                    line2 = reader2.readLine();
-                }
-            }
-            while (line1 != null) {
-                writer.append(line1).append('\n');
-                line1 = reader1.readLine();
+    private File mergeIntoRun(List<File> files) throws IOException {
+        if (files.size() == 1) return files.get(0);
+        String name = files.get(0).getName().replaceAll("merge_", "").replaceAll(DOC_INDEX_PREFIX, "") + "_"
+                + files.get(files.size() - 1).getName().replaceAll("merge_", "").replaceAll(DOC_INDEX_PREFIX, "");
+        File mergedIndex = new File(files.get(0).getParentFile(), "merge_" + name);
+        mergeDocumentIndices(files, new IndexRun.Writer(mergedIndex));
+        return mergedIndex;
+    }
+
+    /**
+     * Position of a merge in one of its inputs.
+     */
+    private static class RunCursor {
+        final int run;
+        final IndexRun.Source source;
+        IndexRun.Entry entry;
+
+        RunCursor(int run, IndexRun.Source source) throws IOException {
+            this.run = run;
+            this.source = source;
+            this.entry = source.next();
+        }
+    }
+
+    /**
+     * Take files containing posting lists and merge them into {@code out} in a
+     * single pass. The input files are deleted!
+     *
+     * @param files in doc id order.
+     * @param out
+     */
+    private void mergeDocumentIndices(List<File> files, IndexRun.Sink out) throws IOException {
+        List<IndexRun.Source> runs = new ArrayList<IndexRun.Source>();
+        for (File f : files) runs.add(new IndexRun.Reader(f));
+        merge(runs, out);
+        for (File f : files) f.delete();
+    }
+
+    /**
+     * Merge sorted sources into {@code out}. A heap over the sources yields
+     * the smallest token next; the postings of a token found in several
+     * sources are copied as bytes, see {@link IndexRun#merge(IndexRun.Entry[], int)}.
+     * Closes the sources and {@code out}.
+     */
+    private void merge(List<IndexRun.Source> sources, IndexRun.Sink out) throws IOException {
+        long start = System.currentTimeMillis();
+        long bytes = 0;
+        PriorityQueue<RunCursor> heap = new PriorityQueue<RunCursor>(Math.max(sources.size(), 1), new Comparator<RunCursor>() {
+            @Override
+            public int compare(RunCursor c1, RunCursor c2) {
+                int order = c1.entry.term.compareTo(c2.entry.term);
+                return order != 0 ? order : c1.run - c2.run;
             }
-            while (line2 != null) {
-                writer.append(line2).append('\n');
-                line2 = reader2.readLine();
+        });
+        for (int i = 0; i < sources.size(); i++) {
+            RunCursor cursor = new RunCursor(i, sources.get(i));
+            if (cursor.entry != null) heap.add(cursor);
+        }
+
+        IndexRun.Entry[] same = new IndexRun.Entry[sources.size()];
+        while (!heap.isEmpty()) {
+            String term = heap.peek().entry.term;
+            int count = 0;
+            while (!heap.isEmpty() && heap.peek().entry.term.equals(term)) {
+                RunCursor cursor = heap.poll();
+                same[count++] = cursor.entry;
+                bytes += cursor.entry.postings.length;
+                cursor.entry = cursor.source.next();
+                if (cursor.entry != null) heap.add(cursor);
             }
-            writer.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+            out.add(IndexRun.merge(same, count));
         }
-        index1.delete();
-        index2.delete();
-        return mergedIndex;
+        out.close();
+
+        for (IndexRun.Source source : sources) source.close();
+        double seconds = Math.max(System.currentTimeMillis() - start, 1) / 1000.0;
+        double megabytes = bytes / (1024.0 * 1024.0);
+        System.out.println(String.format("Merged %d inputs (%.1f MB of postings) in %.2f seconds: %.1f MB/s",
+                sources.size(), megabytes, seconds, megabytes / seconds));
     }
 
+    /**
+     * Merge the final index files of other segments into a new final index
+     * in this organizer's directory. The segments must be loaded and hold
+     * increasing ranges of doc ids. Their deleted documents are dropped.
+     *
+     * @param liveDocs the deleted documents of every segment.
+     */
+    public void mergeSegments(List<IndexOrganizer> segments, List<LiveDocs> liveDocs) throws IOException {
+        List<IndexRun.Source> sources = new ArrayList<IndexRun.Source>();
+        for (int i = 0; i < segments.size(); i++) {
+            sources.add(segments.get(i).new SegmentSource(liveDocs.get(i)));
+        }
+        merge(sources, new FinalIndexWriter());
+        if (_options._forward_index) mergeForwardIndices(segments, liveDocs);
+    }
 
     /**
-     * Split the given full index into many indices with at most numBytesPerIndex
-     * per index.
+     * Write the forward index of the merged segment from the term vectors of
+     * the live documents of the old ones. Documents of segments written
+     * without a forward index get no term vector.
      */
-    private void splitIndex() {
-        File fullIndex = new File(finalIndexName);
-        RandomAccessFile outputFile = null;
+    private void mergeForwardIndices(List<IndexOrganizer> segments, List<LiveDocs> liveDocs) throws IOException {
+        List<DocumentStore> stores = new ArrayList<DocumentStore>();
+        for (IndexOrganizer segment : segments) {
+            stores.add(DocumentStore.open(new File(segment.directory + Indexer.DOCUMENT_STORE)));
+        }
+        ForwardIndex.Writer writer = new ForwardIndex.Writer(new File(directory + ForwardIndex.FILENAME),
+                Lexicon.open(new File(directory + LEXICON)),
+                stores.get(0).firstDocId(), stores.get(stores.size() - 1).lastDocId());
+        for (int i = 0; i < segments.size(); i++) {
+            IndexOrganizer segment = segments.get(i);
+            File forwardFile = new File(segment.directory + ForwardIndex.FILENAME);
+            if (!forwardFile.exists()) continue;
+            ForwardIndex forward = ForwardIndex.open(forwardFile);
+            DocumentStore documents = stores.get(i);
+            for (int docId = documents.firstDocId(); docId <= documents.lastDocId(); docId++) {
+                if (!liveDocs.get(i).isLive(docId)) continue;
+                Map<String, Integer> termVector = forward.termVector(docId, segment.lexicon);
+                if (termVector != null) writer.add(docId, termVector);
+            }
+        }
+        writer.close();
+    }
 
+    /**
+     * Reads back the final index of a loaded segment in term order, in the
+     * {@link IndexRun} format, without its deleted documents.
+     */
+    private class SegmentSource implements IndexRun.Source {
+        private final LiveDocs liveDocs;
+        private int next = 0;
 
-        char jsonFileIndex = ']';
-        String jsonFileName;
-        FileWriter jsonWriter = null;
-        StringBuffer input = new StringBuffer();
+        SegmentSource(LiveDocs liveDocs) {
+            this.liveDocs = liveDocs;
+        }
 
-        try {
-            FileWriter dictionary = new FileWriter(DICTIONARY_FILENAME);
-            BufferedReader reader = new BufferedReader(new FileReader(fullIndex));
-            String line;
-            int bytesWritten = 0;
-            while ((line = reader.readLine()) != null) {
-
-                String token = line.substring(0, line.indexOf(" ")).trim();
-                if (token.length() > 20 || token.matches(".*[0-9].*")) continue;
-
-                if (token.matches("[A-Za-z]+")) dictionary.write(token + "\n");
-
-                if (token.length() > 1 && token.matches("[a-z]+")) {
-                    char firstChar = Character.toLowerCase(token.charAt(0));
-                    if (jsonFileIndex == firstChar) {
-                        input.append("\"").append(token).append("\",");
-                    } else {
-                        if (jsonWriter != null) {
-                            input.append("\"END\"]");
-                            jsonWriter.write(input.toString());
-                            jsonWriter.flush();
-                            jsonWriter.close();
-                        }
-                        jsonFileIndex = firstChar;
-                        jsonFileName = jsonPrefix + jsonFileIndex + "_.json";
-                        jsonWriter = new FileWriter(jsonFileName);
-                        input = new StringBuffer();
-                        input.append("[");
-                        token = "\"" + token + "\",";
-                        input.append(token);
-                    }
+        @Override
+        public IndexRun.Entry next() throws IOException {
+            while (next < lexicon.size()) {
+                Lexicon.Entry entry = lexicon.get(next++);
+                PostingsCursor cursor = new PostingList(buildIndexFor(entry), codec, liveDocs).cursor();
+                PostingsBuffer postings = new PostingsBuffer();
+                while (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS) {
+                    for (int occurrence : cursor.occurrences()) postings.add(cursor.docId(), occurrence);
                 }
+                // Terms only found in deleted documents are gone.
+                if (postings.size() == 0) continue;
+                return new IndexRun.Entry(entry.term, postings.size(), postings.getDocId(0),
+                        postings.getDocId(postings.size() - 1), IndexRun.encode(postings));
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 
-                line = line.substring(line.indexOf(" ") + 1).trim();
-                if (outputFile == null) {
-                    String name = _options._indexPrefix + "/" + token + ".idx";
-                    System.out.println("Writing " + name);
-                    outputFile = new RandomAccessFile(name, "rw");
-                }
 
-                StringTokenizer st = new StringTokenizer(line);
-                List<Long> postingListList = new ArrayList<Long>();
-                while (st.hasMoreTokens()) {
-                    postingListList.add(Long.parseLong(st.nextToken()));
+    /**
+     * Writes the final index files and the lexicon from the merged, sorted
+     * posting lists. A new final index file is started every
+     * bytesPerFinalIndex bytes. With impact_ordered_postings, every posting
+     * list is followed by its {@link ImpactCursor} list.
+     */
+    private class FinalIndexWriter implements IndexRun.Sink {
+        private final Lexicon.Writer lexicon;
+        private RandomAccessFile outputFile = null;
+        private int fileNumber = -1;
+        private int bytesWritten = 0;
+        // PageRanks ordering the documents of equal impact, null without any.
+        private PageRanks pageRanks = null;
+
+        FinalIndexWriter() throws IOException {
+            lexicon = new Lexicon.Writer(new File(directory + LEXICON), codec.getName());
+            File pageRankFile = new File(_options._pagerankPrefix + "/" + CorpusAnalyzerPagerank.PAGERANK_FILENAME);
+            if (_options._impact_ordered_postings && pageRankFile.exists()) pageRanks = PageRanks.open(pageRankFile);
+        }
+
+        @Override
+        public void add(IndexRun.Entry entry) throws IOException {
+            String token = entry.term;
+            if (token.length() > 20 || token.matches(".*[0-9].*")) return;
+
+            if (outputFile == null) {
+                String name = directory + "/" + token + ".idx";
+                System.out.println("Writing " + name);
+                outputFile = new RandomAccessFile(name, "rw");
+                fileNumber = lexicon.addFile(token + ".idx");
+            }
+
+            // Every posting is "docId gap, numOccs, occurrence gaps".
+            int[] values = Compressor.decodeVBytes(entry.postings);
+            int[] docIds = new int[entry.numDocs];
+            int[] termFrequencies = new int[entry.numDocs];
+            int[] occurrences = new int[values.length - 2 * entry.numDocs];
+            int maxTf = 0;
+            for (int i = 0, doc = 0, occ = 0, docId = 0; i < values.length; doc++) {
+                docId += values[i++];
+                docIds[doc] = docId;
+                termFrequencies[doc] = values[i++];
+                maxTf = Math.max(maxTf, termFrequencies[doc]);
+                int occurrence = 0;
+                for (int j = 0; j < termFrequencies[doc]; j++) {
+                    occurrence += values[i++];
+                    occurrences[occ++] = occurrence;
                 }
-                long[] postingList = new long[postingListList.size()];
-                int idx = 0;
-                for (long p : postingListList) postingList[idx++] = p;
+            }
 
-                byte[] lineBytes = indexer.encode(postingList);
+            byte[] lineBytes = PostingList.encode(docIds, termFrequencies, occurrences, codec);
+            byte[] impactBytes = _options._impact_ordered_postings
+                    ? ImpactCursor.encode(docIds, termFrequencies, pageRanks) : new byte[0];
 
-                outputFile.writeUTF(token);
-                outputFile.writeInt(lineBytes.length);
-                outputFile.write(lineBytes);
+            outputFile.writeUTF(token);
+            outputFile.writeInt(lineBytes.length);
+            lexicon.add(token, fileNumber, outputFile.getFilePointer(), lineBytes.length,
+                    entry.numDocs, occurrences.length, maxTf, impactBytes.length);
+            outputFile.write(lineBytes);
+            outputFile.write(impactBytes);
 
-                bytesWritten += lineBytes.length;
+            bytesWritten += lineBytes.length + impactBytes.length;
 
-                if (bytesWritten >= bytesPerFinalIndex) {
-                    outputFile.close();
-                    outputFile = null;
-                    bytesWritten = 0;
-                }
+            if (bytesWritten >= bytesPerFinalIndex) {
+                outputFile.close();
+                outputFile = null;
+                bytesWritten = 0;
             }
-            if (jsonWriter != null) {
-                input.append("\"END\"]");
-                jsonWriter.write(input.toString());
-                jsonWriter.flush();
-                jsonWriter.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (outputFile != null) outputFile.close();
+            lexicon.close();
+        }
+    }
+
+    /**
+     * Write the spell checker dictionary and the JSON lookup files used for
+     * query completion from every term of the index, given in sorted order
+     * without repeats.
+     */
+    public static void writeTermLookups(Iterator<String> terms) throws IOException {
+        char jsonFileIndex = ']';
+        FileWriter jsonWriter = null;
+        StringBuffer input = new StringBuffer();
+        FileWriter dictionary = new FileWriter(DICTIONARY_FILENAME);
+        while (terms.hasNext()) {
+            String token = terms.next();
+            if (token.matches("[A-Za-z]+")) dictionary.write(token + "\n");
+
+            if (token.length() > 1 && token.matches("[a-z]+")) {
+                char firstChar = Character.toLowerCase(token.charAt(0));
+                if (jsonFileIndex == firstChar) {
+                    input.append("\"").append(token).append("\",");
+                } else {
+                    if (jsonWriter != null) {
+                        input.append("\"END\"]");
+                        jsonWriter.write(input.toString());
+                        jsonWriter.flush();
+                        jsonWriter.close();
+                    }
+                    jsonFileIndex = firstChar;
+                    jsonWriter = new FileWriter(jsonPrefix + jsonFileIndex + "_.json");
+                    input = new StringBuffer();
+                    input.append("[");
+                    input.append("\"").append(token).append("\",");
+                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
-        fullIndex.delete();
+        if (jsonWriter != null) {
+            input.append("\"END\"]");
+            jsonWriter.write(input.toString());
+            jsonWriter.flush();
+            jsonWriter.close();
+        }
+        dictionary.close();
     }
 
 
+    /**
+     * Memory map the lexicon written by mergeAndSplit(). Must be called before
+     * loadIndexFor(String).
+     *
+     * @throws IOException
+     */
+    public void loadIndex() throws IOException {
+        lexicon = Lexicon.open(new File(directory + LEXICON));
+        finalIndices = new MappedByteBuffer[lexicon.numFiles()];
+        codec = PostingsCodec.Factory.getCodecByName(lexicon.getCodecName());
+        if (codec == null) throw new IOException("Unknown postings codec: " + lexicon.getCodecName());
+        System.out.println("Loaded lexicon with " + lexicon.size() + " tokens, using the "
+                + codec.getName() + " codec.");
+    }
+
+    /**
+     * Statistics and location of the posting list for {@code token}, straight
+     * from the lexicon. Nothing is decoded.
+     *
+     * @return null if the token isn't in the index.
+     */
+    public Lexicon.Entry getLexiconEntry(String token) {
+        return lexicon.lookup(token);
+    }
+
+    public Lexicon getLexicon() {
+        return lexicon;
+    }
+
     public byte[] loadIndexFor(String token) {
         if (cachedTokens != null && cachedTokens.containsKey(token)) {
             return cachedTokens.get(token);
         }
-        File[] indices = new File(_options._indexPrefix).listFiles();
-
-        Arrays.sort(indices, new Comparator<File>() {
-            @Override
-            public int compare(File o1, File o2) {
-                return o1.getName().compareTo(o2.getName());
-            }
-        });
-        File finalIndex = null;
-        for (File f : indices) {
-            String fileName = f.getName();
-            if (!fileName.endsWith(".idx")) continue;
-            if (fileName.substring(0, fileName.indexOf(".idx")).compareTo(token) > 0) {
-                break;
-            }
-            finalIndex = f;
-        }
-        byte[] bytes = buildIndexFor(finalIndex, token);
+        Lexicon.Entry entry = lexicon.lookup(token);
+        if (entry == null) return null;
+        byte[] bytes = buildIndexFor(entry);
         cachedTokens.put(token, bytes);
         return bytes;
     }
@@ -345,23 +515,49 @@ public class IndexOrganizer {
         } else return false;
     }
 
-    private byte[] buildIndexFor(File index, String token) {
+    /**
+     * The impact ordered list following the posting list of {@code entry}, as
+     * a view of the memory mapped final index file. Nothing is copied.
+     *
+     * @return null if the index was written without impact ordered lists.
+     */
+    public ByteBuffer impactsFor(Lexicon.Entry entry) {
+        if (entry.impactLength == 0) return null;
         try {
-            RandomAccessFile indexFile = new RandomAccessFile(index, "r");
-            try {
-                while (true) {
-                    String thisToken = indexFile.readUTF();
-                    int numBytes = indexFile.readInt();
-                    byte[] bytes = new byte[numBytes];
-                    indexFile.read(bytes);
-                    if (thisToken.equals(token)) return bytes;
-                }
-            } catch (EOFException e) {
-                // End of file, no more tokens. Ignore.
-            }
+            ByteBuffer impacts = mapFinalIndex(entry.file).duplicate();
+            impacts.position((int) (entry.offset + entry.length));
+            impacts.limit(impacts.position() + entry.impactLength);
+            return impacts;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private byte[] buildIndexFor(Lexicon.Entry entry) {
+        try {
+            ByteBuffer finalIndex = mapFinalIndex(entry.file).duplicate();
+            finalIndex.position((int) entry.offset);
+            byte[] bytes = new byte[entry.length];
+            finalIndex.get(bytes);
+            return bytes;
         } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
-}
\ No newline at end of file
+
+    private synchronized MappedByteBuffer mapFinalIndex(int file) throws IOException {
+        if (finalIndices[file] == null) {
+            RandomAccessFile indexFile = new RandomAccessFile(
+                    directory + "/" + lexicon.getFileName(file), "r");
+            try {
+                FileChannel channel = indexFile.getChannel();
+                finalIndices[file] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                indexFile.close();
+            }
+        }
+        return finalIndices[file];
+    }
+}
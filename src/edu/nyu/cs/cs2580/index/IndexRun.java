@@ -0,0 +1,223 @@
+package edu.nyu.cs.cs2580.index;
+
+import edu.nyu.cs.cs2580.helper.Compressor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Binary format of the temporary index files written while indexing and
+ * merged by {@link IndexOrganizer}.
+ * <p/>
+ * A run is a sequence of terms in sorted order. Every term is stored as:
+ * <pre>
+ *   writeUTF(term)
+ *   int numDocs
+ *   int firstDocId
+ *   int lastDocId
+ *   int postingsLength
+ *   postings: per doc, VByte of [docId gap] [numOccs] [occurrence gaps]
+ * </pre>
+ * Doc id gaps start from 0 and occurrence gaps restart from 0 for every doc.
+ * Because the first and last doc ids are in the header, the postings of a term
+ * coming from two runs whose documents don't overlap can be concatenated by
+ * rewriting only the first gap of the second run. Nothing else is decoded.
+ */
+public class IndexRun {
+
+    /**
+     * The postings of one term in one run.
+     */
+    public static class Entry {
+        public final String term;
+        public final int numDocs;
+        public final int firstDocId;
+        public final int lastDocId;
+        public final byte[] postings;
+
+        public Entry(String term, int numDocs, int firstDocId, int lastDocId, byte[] postings) {
+            this.term = term;
+            this.numDocs = numDocs;
+            this.firstDocId = firstDocId;
+            this.lastDocId = lastDocId;
+            this.postings = postings;
+        }
+    }
+
+    /**
+     * Anything giving entries in term order: a run, or an index segment.
+     */
+    public interface Source {
+        /**
+         * @return the next entry, or null at the end.
+         */
+        public Entry next() throws IOException;
+
+        public void close() throws IOException;
+    }
+
+    /**
+     * Anything taking sorted run entries: another run, or the final index.
+     */
+    public interface Sink {
+        public void add(Entry entry) throws IOException;
+
+        public void close() throws IOException;
+    }
+
+    public static class Writer implements Sink {
+        private final DataOutputStream out;
+
+        public Writer(File file) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        }
+
+        public void add(PostingsBuffer postings, String term) throws IOException {
+            postings.sortByDocId();
+            add(new Entry(term, postings.size(), postings.getDocId(0),
+                    postings.getDocId(postings.size() - 1), encode(postings)));
+        }
+
+        @Override
+        public void add(Entry entry) throws IOException {
+            out.writeUTF(entry.term);
+            out.writeInt(entry.numDocs);
+            out.writeInt(entry.firstDocId);
+            out.writeInt(entry.lastDocId);
+            out.writeInt(entry.postings.length);
+            out.write(entry.postings);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    public static class Reader implements Source {
+        private final DataInputStream in;
+
+        public Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        @Override
+        public Entry next() throws IOException {
+            String term;
+            try {
+                term = in.readUTF();
+            } catch (EOFException e) {
+                return null;
+            }
+            int numDocs = in.readInt();
+            int firstDocId = in.readInt();
+            int lastDocId = in.readInt();
+            byte[] postings = new byte[in.readInt()];
+            in.readFully(postings);
+            return new Entry(term, numDocs, firstDocId, lastDocId, postings);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Encode sorted postings in the run format.
+     */
+    public static byte[] encode(PostingsBuffer postings) {
+        int length = 0, previous = 0;
+        for (int d = 0; d < postings.size(); d++) {
+            int tf = postings.getTermFrequency(d);
+            length += Compressor.vByteLength(postings.getDocId(d) - previous) + Compressor.vByteLength(tf);
+            previous = postings.getDocId(d);
+            int base = 0;
+            for (int j = 0; j < tf; j++) {
+                length += Compressor.vByteLength(postings.getOccurrence(d, j) - base);
+                base = postings.getOccurrence(d, j);
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(length);
+        previous = 0;
+        for (int d = 0; d < postings.size(); d++) {
+            int tf = postings.getTermFrequency(d);
+            Compressor.writeVByte(postings.getDocId(d) - previous, out);
+            Compressor.writeVByte(tf, out);
+            previous = postings.getDocId(d);
+            int base = 0;
+            for (int j = 0; j < tf; j++) {
+                Compressor.writeVByte(postings.getOccurrence(d, j) - base, out);
+                base = postings.getOccurrence(d, j);
+            }
+        }
+        return out.array();
+    }
+
+    /**
+     * Append the postings of {@code entry} to {@code postings}.
+     */
+    public static void decode(Entry entry, PostingsBuffer postings) {
+        int[] values = Compressor.decodeVBytes(entry.postings);
+        int docId = 0;
+        for (int i = 0; i < values.length; ) {
+            docId += values[i++];
+            int tf = values[i++];
+            int occurrence = 0;
+            for (int j = 0; j < tf; j++) {
+                occurrence += values[i++];
+                postings.add(docId, occurrence);
+            }
+        }
+    }
+
+    private static final Comparator<Entry> BY_FIRST_DOC_ID = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return e1.firstDocId < e2.firstDocId ? -1 : (e1.firstDocId == e2.firstDocId ? 0 : 1);
+        }
+    };
+
+    /**
+     * Merge the postings of the same term coming from several runs. When the
+     * runs cover disjoint ranges of doc ids their bytes are concatenated.
+     * Otherwise, as when several indexing threads took documents from the same
+     * queue, all postings are decoded and sorted. Reorders entries[0, count).
+     */
+    public static Entry merge(Entry[] entries, int count) {
+        if (count == 1) return entries[0];
+        Arrays.sort(entries, 0, count, BY_FIRST_DOC_ID);
+        boolean ordered = true;
+        int numDocs = entries[0].numDocs, length = entries[0].postings.length;
+        for (int i = 1; i < count; i++) {
+            ordered &= entries[i].firstDocId > entries[i - 1].lastDocId;
+            numDocs += entries[i].numDocs;
+            length += entries[i].postings.length;
+        }
+
+        if (!ordered) {
+            PostingsBuffer postings = new PostingsBuffer();
+            for (int i = 0; i < count; i++) decode(entries[i], postings);
+            postings.sortByDocId();
+            return new Entry(entries[0].term, numDocs, postings.getDocId(0),
+                    postings.getDocId(numDocs - 1), encode(postings));
+        }
+
+        // Each later run needs its first gap rebased on the previous run's last
+        // doc id, which takes at most 5 bytes.
+        ByteBuffer out = ByteBuffer.allocate(length + 5 * count);
+        out.put(entries[0].postings);
+        for (int i = 1; i < count; i++) {
+            byte[] postings = entries[i].postings;
+            int firstGapEnd = Compressor.skipVBytes(postings, 0, 1);
+            Compressor.writeVByte(entries[i].firstDocId - entries[i - 1].lastDocId, out);
+            out.put(postings, firstGapEnd, postings.length - firstGapEnd);
+        }
+        byte[] merged = new byte[out.position()];
+        System.arraycopy(out.array(), 0, merged, 0, merged.length);
+        return new Entry(entries[0].term, numDocs, entries[0].firstDocId,
+                entries[count - 1].lastDocId, merged);
+    }
+}
@@ -3,7 +3,9 @@ package edu.nyu.cs.cs2580.index;
 import edu.nyu.cs.cs2580.CorpusAnalyzer;
 import edu.nyu.cs.cs2580.CorpusAnalyzerPagerank;
 import edu.nyu.cs.cs2580.SearchEngine.Options;
+import edu.nyu.cs.cs2580.helper.FilenameTable;
 import edu.nyu.cs.cs2580.helper.HtmlParser;
+import edu.nyu.cs.cs2580.helper.PageRanks;
 import edu.nyu.cs.cs2580.helper.ProgressBar;
 import edu.nyu.cs.cs2580.models.Document;
 import edu.nyu.cs.cs2580.models.DocumentIndexed;
@@ -15,19 +17,26 @@ import org.apache.lucene.search.spell.SpellChecker;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Version;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.*;
+import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 /**
  * This is the abstract Indexer class for all concrete Indexer implementations.
@@ -42,14 +51,31 @@ import java.util.concurrent.TimeUnit;
  */
 public abstract class Indexer implements Runnable {
 
-    protected static final String DOC_MAP_INDEX = "/document_map.idx.serialized";
-    Map<Long, DocumentIndexed> indexFromDocId = new ConcurrentHashMap<Long, DocumentIndexed>();
-
-    String outputFileName;
-    File[] filesToIndex;
-    int startIndex, endIndex;
-    Map<String, Long> filenameToDocID;
-
+    protected static final String DOCUMENT_STORE = "/documents.store";
+    // Size and modification time of every file indexed so far.
+    protected static final String CORPUS_STATE = "/corpus.state";
+    // Documents indexed so far by all threads, while indexing.
+    Map<Long, DocumentIndexed> indexFromDocId;
+    // All segments of the index, while serving. Replaced by refresh() once
+    // the index is updated.
+    private volatile Segments segments;
+    // Snapshot of the segments every serving thread holds for its query.
+    private final ThreadLocal<Segments> querySegments = new ThreadLocal<Segments>();
+    // When refresh() last looked for a new snapshot, in milliseconds.
+    private long lastRefresh = 0;
+    private static final long REFRESH_INTERVAL_MILLIS = 1000;
+    PageRanks pageRanks;
+
+    // Documents not taken by any indexing thread yet, shared by all of them.
+    Queue<File> filesToIndex;
+    // Number of the next temporary index file, shared by all indexing threads.
+    AtomicInteger nextRunNumber;
+    // Bytes of postings a thread may hold before writing a temporary index.
+    long memoryBudget;
+    // Doc id of every file of the corpus, shared by all indexing threads.
+    FilenameTable filenameToDocID;
+
+    // Writes the temporary indices of an indexing thread.
     IndexOrganizer organizer;
     // Options to configure each concrete Indexer, do not serialize.
     protected Options _options = null;
@@ -74,7 +100,6 @@ public abstract class Indexer implements Runnable {
     public Indexer(Options options) {
         _options = options;
         _corpusAnalyzer = CorpusAnalyzer.Factory.getCorpusAnalyzerByOption(options);
-        filenameToDocID = loadFilenameToDocID();
 
         //_logMiner = LogMiner.Factory.getLogMinerByOption(options);
 
@@ -93,13 +118,74 @@ public abstract class Indexer implements Runnable {
 
     // Number of documents in the corpus.
     public final int numDocs() {
-        return _numDocs;
+        return segments != null ? segments().numDocs() : _numDocs;
     }
 
     // Number of term occurrences in the corpus. If a term appears 10 times, it
     // will be counted 10 times.
     public final long totalTermFrequency() {
-        return _totalTermFrequency;
+        return segments != null ? segments().totalTermFrequency() : _totalTermFrequency;
+    }
+
+    /**
+     * The segments the query of this thread started with, or the latest ones
+     * outside a query.
+     */
+    Segments segments() {
+        Segments held = querySegments.get();
+        return held != null ? held : segments;
+    }
+
+    /**
+     * Changes with every new snapshot of the segments, so results cached for
+     * a query can be told apart from those of an older index.
+     */
+    public long indexVersion() {
+        return segments().version();
+    }
+
+    /**
+     * Hold the latest segments for the query of this thread until endQuery(),
+     * so a merge can't delete their files under it. Picks up the segments
+     * written by --mode=update since the last query first.
+     */
+    public void startQuery() {
+        refresh();
+        synchronized (this) {
+            Segments current = segments;
+            current.acquire();
+            querySegments.set(current);
+        }
+    }
+
+    public void endQuery() {
+        Segments held = querySegments.get();
+        if (held == null) return;
+        querySegments.remove();
+        held.release(_options);
+    }
+
+    /**
+     * Read the manifest and the deleted documents again if they changed, at
+     * most once every REFRESH_INTERVAL_MILLIS.
+     */
+    private synchronized void refresh() {
+        long now = System.currentTimeMillis();
+        if (now - lastRefresh < REFRESH_INTERVAL_MILLIS) return;
+        lastRefresh = now;
+        try {
+            if (!segments.isStale(_options)) return;
+            Segments previous = segments;
+            Segments updated = previous.reopen(_options);
+            updated.acquire();
+            segments = updated;
+            _numDocs = updated.numDocs();
+            _totalTermFrequency = updated.totalTermFrequency();
+            previous.release(_options);
+        } catch (IOException e) {
+            // Keep serving the segments loaded already.
+            e.printStackTrace();
+        }
     }
 
     // Number of documents in which {@code term} appeared, over the full corpus.
@@ -108,9 +194,39 @@ public abstract class Indexer implements Runnable {
     // Number of times {@code term} appeared in corpus.
     public abstract int corpusTermFrequency(String term);
 
+    // Largest number of times {@code term} appeared in a single document.
+    public abstract int maxDocumentTermFrequency(String term);
+
     // Number of times {@code term} appeared in the document {@code url}.
     public abstract int documentTermFrequency(String term, String url);
 
+    // Number of times {@code term} appeared in the document {@code docId}.
+    public abstract int documentTermFrequency(String term, int docId);
+
+    // Width of the smallest window of the document {@code docId} holding an
+    // occurrence of every one of {@code terms}, which must be words, or 0 if
+    // one of them isn't in it. See {@link Spans}.
+    public abstract int minimalSpan(List<String> terms, int docId);
+
+    /**
+     * A new cursor over the documents of {@code term}, which may be a phrase.
+     *
+     * @return null if the term isn't in the index.
+     */
+    public abstract PostingsCursor postingsCursor(String term);
+
+    /**
+     * The documents of {@code term} in decreasing order of term frequency,
+     * see {@link ImpactCursor}.
+     *
+     * @return null if the term isn't in the index or is a phrase, or the index
+     * was built without impact_ordered_postings.
+     */
+    public ImpactCursor impactCursor(String term) {
+        if (term.contains(" ")) return null;
+        return segments().getImpacts(term, pageRanks);
+    }
+
     /**
      * All Indexers must be created through this factory class based on the
      * provided {@code options}.
@@ -128,12 +244,21 @@ public abstract class Indexer implements Runnable {
         return spellChecker;
     }
 
+    /**
+     * Take documents from the shared queue until it is empty. Whenever the
+     * postings held in memory reach the memory budget, they are written out as
+     * a temporary index file.
+     */
     public void run() {
-        System.out.println("Starting to run " + outputFileName);
-        for (int i = startIndex; i < endIndex; i++) {
-            File f = filesToIndex[i];
-            if (f.isDirectory()) continue;
-            long docId = filenameToDocID.get(f.getName());
+        String name = Thread.currentThread().getName();
+        System.out.println("Starting to run " + name);
+        File f;
+        while ((f = filesToIndex.poll()) != null) {
+            long docId = filenameToDocID.getDocId(f.getName());
+            if (docId < 0) {
+                System.out.println("no doc id for:" + f.getName());
+                continue;
+            }
             try {
                 HtmlParser parser = new HtmlParser(f);
                 processDocument(f.getAbsolutePath(),
@@ -141,45 +266,56 @@ public abstract class Indexer implements Runnable {
                         parser.getTitle(),
                         parser.getBody());
                 _totalTermFrequency += indexFromDocId.get(docId).size;
+                if (postingsMemoryUsed() >= memoryBudget) flushIndexToFile(nextRunName());
             } catch (Exception e) {
                 System.out.println("error when processing doc:" + f.getName());
                 e.printStackTrace();
             }
         }
         try {
-            flushIndexToFile(outputFileName);
+            if (postingsMemoryUsed() > 0) flushIndexToFile(nextRunName());
         } catch (IOException e) {
             e.printStackTrace();
         }
-        System.out.println("Done running for " + outputFileName);
+        System.out.println("Done running for " + name);
     }
 
+    private String nextRunName() {
+        return IndexOrganizer.DOC_INDEX_PREFIX + nextRunNumber.getAndIncrement();
+    }
 
-    private Map<String, Long> loadFilenameToDocID() {
-        Map<String, Long> filenameToDocID = null;
-        try {
-            FileInputStream reader = new FileInputStream(_options._indexPrefix + "/" + _options._filename_to_DocId);
-            ObjectInputStream input = new ObjectInputStream(reader);
-            filenameToDocID = (Map<String, Long>) input.readObject();
-            input.close();
-            reader.close();
-        } catch (Exception e) {
-            try {
-                filenameToDocID = generateDocIDs();    // If they don't exist, generate them!
-                flushDocIDToFile();
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
-        }
+
+    /**
+     * Open the file name table written by the miner, or generate one if it
+     * doesn't exist.
+     */
+    private FilenameTable loadFilenameToDocID() throws IOException {
+        File table = new File(_options._indexPrefix + "/" + _options._filename_to_DocId);
+        if (!table.exists()) flushDocIDToFile(generateDocIDs());    // If they don't exist, generate them!
+        FilenameTable filenameToDocID = FilenameTable.open(table);
+        System.out.println("Loaded doc ids of " + filenameToDocID.size() + " files.");
         return filenameToDocID;
     }
 
     public boolean removeFromCache(String token) {
-        return organizer.removeFromCache(token);
+        return segments().removeFromCache(token);
     }
 
     public DocumentIndexed getDoc(int docid) {
-        return indexFromDocId.get((long) docid);
+        DocumentIndexed doc = segments().getDocument(docid);
+        if (doc != null) doc.setPageRank(pageRanks.get(docid));
+        return doc;
+    }
+
+    /**
+     * The terms of the document {@code docid} and their frequencies, from the
+     * forward index.
+     *
+     * @return null if the document isn't in the index, or the index was built
+     * without forward_index.
+     */
+    public Map<String, Integer> termVector(int docid) {
+        return segments().termVector(docid);
     }
 
     /**
@@ -196,7 +332,7 @@ public abstract class Indexer implements Runnable {
         // generate docids for all files
         System.out.println("Generating docids...");
         int count = 0;
-        if (filenameToDocID == null) filenameToDocID = new ConcurrentHashMap<String, Long>();
+        Map<String, Long> filenameToDocID = new HashMap<String, Long>();
         for (File f : filelist) {
             if (!filenameToDocID.containsKey(f.getName())) {
                 filenameToDocID.put(f.getName(), docId);
@@ -208,9 +344,9 @@ public abstract class Indexer implements Runnable {
     }
 
     /**
-     * Writes Document names (filenames) to doc id map to file.
+     * Writes Document names (filenames) to doc id map to file, see {@link FilenameTable}.
      */
-    private void flushDocIDToFile() {
+    private void flushDocIDToFile(Map<String, Long> filenameToDocID) throws IOException {
         String pathstr = _options._indexPrefix + "/";
         String filename = pathstr + _options._filename_to_DocId;
 
@@ -220,38 +356,35 @@ public abstract class Indexer implements Runnable {
             newFile.mkdirs();
         }
 
-        try {
-            FileOutputStream newGraph = new FileOutputStream(filename);
-            System.out.println("Writing docids to " + filename);
-            ObjectOutputStream output = new ObjectOutputStream(newGraph);
-            output.writeObject(filenameToDocID);
-            output.close();
-            newGraph.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        System.out.println("Writing docids to " + filename);
+        FilenameTable.write(new File(filename), filenameToDocID);
     }
 
     abstract void flushIndexToFile(String filename) throws IOException;
 
+    // Estimated bytes of heap held by the postings not flushed yet.
+    abstract long postingsMemoryUsed();
+
+    /**
+     * Load the posting list of {@code term} into the postings cache.
+     *
+     * @return bytes of postings loaded, 0 if the term isn't in the index.
+     */
+    abstract long preload(String term);
+
     abstract void processDocument(String filePath, long docId, String title, String body) throws IOException;
 
     public void loadIndex() throws IOException, ClassNotFoundException {
         String indexDirectory = _options._indexPrefix;
         System.out.println("Load index from: " + indexDirectory);
 
-        File pre_index_file = new File(_options._indexPrefix + DOC_MAP_INDEX);
-        ObjectInputStream reader = new ObjectInputStream(
-                new FileInputStream(pre_index_file));
-        indexFromDocId = (Map<Long, DocumentIndexed>) reader.readObject();
-        reader.close();
-
-        _numDocs = indexFromDocId.size();
-
-        _totalTermFrequency = 0;
-        for (DocumentIndexed doc : indexFromDocId.values()) {
-            _totalTermFrequency += doc.size;
-        }
+        Segments segments = Segments.open(_options);
+        // Held until the next refresh() replaces it.
+        segments.acquire();
+        _numDocs = segments.numDocs();
+        _totalTermFrequency = segments.totalTermFrequency();
+        this.segments = segments;
+        pageRanks = (PageRanks) new CorpusAnalyzerPagerank(_options).load();
 
         spellChecker = new SpellChecker(FSDirectory.open(new File("spellchecker")));
         spellChecker.indexDictionary(new PlainTextDictionary(new File(IndexOrganizer.DICTIONARY_FILENAME)), new IndexWriterConfig(Version.LUCENE_36, new EnglishAnalyzer(Version.LUCENE_36)), true);
@@ -260,11 +393,82 @@ public abstract class Indexer implements Runnable {
     }
 
     /**
-     * Loop over every document in the corpus directory, adding it to the index.
-     * Every DOCS_PER_GROUP, a new index is started.
-     * Once all documents are finished indexing, the different indices created
-     * for groups of docs are merged together into one large index with no
-     * repeated values.
+     * Preload the posting lists of the terms found most often in the
+     * warmup_query_log, so the first queries served don't wait for the index
+     * files. Stops once warmup_terms terms are loaded, or warmup_time_budget
+     * milliseconds or warmup_memory_budget bytes of postings are spent. The
+     * postings cache keeps no more than postings_cache_budget bytes of them.
+     * <p/>
+     * The log holds one query per line. A captured serve log works as well:
+     * then only the URL decoded query parameters of its "Query: " lines are
+     * read.
+     */
+    public void warmUp() throws IOException {
+        if (_options._warmup_query_log == null) return;
+        long start = System.currentTimeMillis();
+        List<String> queries = new ArrayList<String>();
+        List<String> servedQueries = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(_options._warmup_query_log));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                queries.add(line);
+                if (!line.startsWith("Query: ")) continue;
+                for (String param : line.substring("Query: ".length()).split("&")) {
+                    if (!param.startsWith("query=")) continue;
+                    String query = param.substring("query=".length());
+                    try {
+                        servedQueries.add(URLDecoder.decode(query, "UTF-8"));
+                    } catch (IllegalArgumentException e) {
+                        // A '%' left over from the decoding done by the server.
+                        servedQueries.add(query);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (!servedQueries.isEmpty()) queries = servedQueries;
+
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (String query : queries) {
+            for (String token : new QueryPhrase(query)._tokens) {
+                // The words of a phrase or NEAR group are looked up one by one.
+                for (String term : QueryPhrase.words(token)) {
+                    Integer count = counts.get(term);
+                    counts.put(term, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        List<String> terms = new ArrayList<String>(counts.keySet());
+        Collections.sort(terms, new Comparator<String>() {
+            @Override
+            public int compare(String t1, String t2) {
+                return counts.get(t2) - counts.get(t1);
+            }
+        });
+
+        int loaded = 0;
+        long bytes = 0;
+        long budget = Math.min(_options._warmup_memory_budget, _options._postings_cache_budget);
+        for (String term : terms) {
+            if (loaded >= _options._warmup_terms || bytes >= budget
+                    || System.currentTimeMillis() - start >= _options._warmup_time_budget) break;
+            long termBytes = preload(term);
+            if (termBytes == 0) continue;
+            loaded++;
+            bytes += termBytes;
+        }
+        System.out.println(String.format("Warmed up %d of %d terms from %d queries (%.1f MB of postings) in %.2f seconds.",
+                loaded, terms.size(), queries.size(), bytes / (1024.0 * 1024.0),
+                (System.currentTimeMillis() - start) / 1000.0));
+    }
+
+    /**
+     * Index every document in the corpus directory into a single segment,
+     * replacing any previous index.
      * <p/>
      * To write the current set of documents' index out to a file, call
      * flushIndexToFile().
@@ -272,30 +476,115 @@ public abstract class Indexer implements Runnable {
      * @throws java.io.IOException
      */
     public void constructIndex() throws IOException {
-        Map<String, Long> filenameToDocID = loadFilenameToDocID();
-
-        Map<Long, Float> docIDToPageRank = (Map<Long, Float>) new CorpusAnalyzerPagerank(_options).load();
-        System.out.println("Loaded " + docIDToPageRank.size() + " page ranks.");
+        FilenameTable filenameToDocID = loadFilenameToDocID();
 
         File docDirectory = new File(_options._corpusPrefix);
         System.out.println("Construct Inverted index from: " + docDirectory.getPath());
+        List<File> corpus = listCorpus();
+
+        for (Segments.Info old : Segments.readManifest(_options)) {
+            Segments.delete(new File(Segments.directory(_options, old.name)));
+        }
+        Segments.Info segment = indexSegment(corpus, filenameToDocID, Segments.SEGMENT_PREFIX + 0);
+        Segments.writeManifest(_options, Collections.singletonList(segment));
+        writeCorpusState(corpus, new HashMap<String, String[]>());
+        Segments.writeTermLookups(_options);
+    }
+
+    /**
+     * Index the files of the corpus which were added or changed since the
+     * index was built or last updated into a new segment, delete the documents
+     * of files which changed or were removed, then merge segments in the
+     * background.
+     * <p/>
+     * Files are compared with the size, modification time and checksum
+     * recorded in corpus.state. Changed files get a new doc id, and their old
+     * doc id is deleted once the new segment is in the manifest.
+     *
+     * @throws java.io.IOException
+     */
+    public void updateIndex() throws IOException {
+        List<Segments.Info> infos = Segments.readManifest(_options);
+        if (infos.isEmpty()) {
+            throw new IOException("No index in " + _options._indexPrefix + ", run --mode=index first.");
+        }
+        Map<String, String[]> state = readCorpusState();
+        List<File> corpus = listCorpus();
+        Set<String> names = new HashSet<String>();
+        List<File> changed = new ArrayList<File>();
+        for (File f : corpus) {
+            names.add(f.getName());
+            if (hasChanged(f, state.get(f.getName()))) changed.add(f);
+        }
+        List<String> removed = new ArrayList<String>();
+        for (String name : state.keySet()) {
+            if (!names.contains(name)) removed.add(name);
+        }
+        System.out.println(changed.size() + " of " + corpus.size() + " files added or changed, "
+                + removed.size() + " removed.");
+        if (changed.isEmpty() && removed.isEmpty()) {
+            writeCorpusState(corpus, state);
+            return;
+        }
+
+        Map<String, Long> docIds = loadFilenameToDocID().toMap();
+        List<Integer> deleted = new ArrayList<Integer>();
+        for (String name : removed) {
+            Long docId = docIds.remove(name);
+            if (docId != null) deleted.add(docId.intValue());
+        }
+        long nextDocId = 1;
+        for (Segments.Info info : infos) nextDocId = Math.max(nextDocId, info.lastDocId + 1L);
+        for (long docId : docIds.values()) nextDocId = Math.max(nextDocId, docId + 1);
+        for (File f : changed) {
+            Long docId = docIds.put(f.getName(), nextDocId++);
+            if (docId != null) deleted.add(docId.intValue());
+        }
+        flushDocIDToFile(docIds);
+
+        if (!changed.isEmpty()) {
+            infos.add(indexSegment(changed, loadFilenameToDocID(), Segments.nextName(_options, infos)));
+            Segments.writeManifest(_options, infos);
+        }
+        System.out.println("Deleted " + Segments.deleteDocuments(_options, deleted) + " documents.");
+        writeCorpusState(corpus, state);
+        Segments.writeTermLookups(_options);
+
+        try {
+            Segments.startBackgroundMerge(_options).join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Index {@code files} into the new segment {@code name}. num_indexing_threads
+     * threads take documents from a shared queue, and each starts a new
+     * temporary index whenever its postings reach its share of
+     * indexing_memory_budget. Once all documents are finished indexing, the
+     * temporary indices are merged together into the final index of the
+     * segment, with no repeated values.
+     */
+    private Segments.Info indexSegment(List<File> files, FilenameTable filenameToDocID, String name)
+            throws IOException {
+        String directory = Segments.createDirectory(_options, name);
         _totalTermFrequency = 0;
-        File[] files = docDirectory.listFiles();
-        _numDocs = files.length;
+        Queue<File> filesToIndex = new ConcurrentLinkedQueue<File>(files);
+        Map<Long, DocumentIndexed> documents = new ConcurrentHashMap<Long, DocumentIndexed>();
+        AtomicInteger nextRunNumber = new AtomicInteger(0);
         ExecutorService executorService = Executors.newFixedThreadPool(_options._num_indexing_threads);
         List<Indexer> indexerThreads = new ArrayList<Indexer>();
 
         double time = System.currentTimeMillis();
-        for (int i = 0; i <= _numDocs / _options._docs_per_thread; i++) {
+        for (int i = 0; i < _options._num_indexing_threads; i++) {
             Indexer indexerThread = new IndexerInvertedCompressed(
                     _options,
+                    directory,
                     filenameToDocID,
-                    IndexOrganizer.DOC_INDEX_PREFIX + i,
-                    files,
-                    i * _options._docs_per_thread,
-                    Math.min((i + 1) * _options._docs_per_thread, _numDocs),
-                    indexFromDocId,
-                    docIDToPageRank);
+                    filesToIndex,
+                    nextRunNumber,
+                    _options._indexing_memory_budget / _options._num_indexing_threads,
+                    documents);
             indexerThreads.add(indexerThread);
             executorService.execute(indexerThread);
         }
@@ -314,17 +603,86 @@ public abstract class Indexer implements Runnable {
         for (Indexer t : indexerThreads) {
             _totalTermFrequency += t._totalTermFrequency;
         }
+        _numDocs = documents.size();
 
-        System.out.println("Indexed " + _numDocs + " docs with " + _totalTermFrequency + " terms.");
+        System.out.println("Indexed " + _numDocs + " docs with " + _totalTermFrequency + " terms into " + name + ".");
 
-        String indexFile = _options._indexPrefix + DOC_MAP_INDEX;
-        System.out.println("Store doc map to: " + indexFile);
-        ObjectOutputStream writer = new ObjectOutputStream(new FileOutputStream(indexFile));
-        writer.writeObject(indexFromDocId);
-        writer.close();
+        File storeFile = new File(directory + DOCUMENT_STORE);
+        DocumentStore.write(storeFile, documents);
+        DocumentStore store = DocumentStore.open(storeFile);
 
-        organizer.mergeAndSplit();
+        new IndexOrganizer(_options, directory).mergeAndSplit();
+        return new Segments.Info(name, store.firstDocId(), store.lastDocId(), store.numDocs());
     }
 
-    public abstract byte[] encode(long[] postingList);
+    private List<File> listCorpus() {
+        List<File> corpus = new ArrayList<File>();
+        for (File f : new File(_options._corpusPrefix).listFiles()) {
+            if (!f.isDirectory()) corpus.add(f);
+        }
+        return corpus;
+    }
+
+    /**
+     * A file changed if its size did, or if its modification time did and so
+     * did its checksum: copying the corpus around doesn't change its files.
+     *
+     * @param known size, modification time and checksum of the file when it was
+     *              last indexed, or null if it wasn't.
+     */
+    private static boolean hasChanged(File f, String[] known) throws IOException {
+        if (known == null || Long.parseLong(known[0]) != f.length()) return true;
+        if (Long.parseLong(known[1]) == f.lastModified()) return false;
+        return Long.parseLong(known[2]) != checksum(f);
+    }
+
+    private static long checksum(File f) throws IOException {
+        CheckedInputStream in = new CheckedInputStream(new FileInputStream(f), new CRC32());
+        try {
+            byte[] buffer = new byte[1 << 16];
+            while (in.read(buffer) != -1) ;
+            return in.getChecksum().getValue();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the size, modification time and checksum of every indexed file,
+     * by name.
+     */
+    private Map<String, String[]> readCorpusState() throws IOException {
+        Map<String, String[]> state = new HashMap<String, String[]>();
+        File stateFile = new File(_options._indexPrefix + CORPUS_STATE);
+        if (!stateFile.exists()) return state;
+        BufferedReader reader = new BufferedReader(new FileReader(stateFile));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length == 4) state.put(fields[0], Arrays.copyOfRange(fields, 1, 4));
+            }
+        } finally {
+            reader.close();
+        }
+        return state;
+    }
+
+    /**
+     * Writes "name size modificationTime checksum" for every file of the
+     * corpus. Checksums are only computed for files which changed since
+     * {@code known}.
+     */
+    private void writeCorpusState(List<File> corpus, Map<String, String[]> known) throws IOException {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(
+                new FileWriter(_options._indexPrefix + CORPUS_STATE)));
+        for (File f : corpus) {
+            String[] state = known.get(f.getName());
+            boolean same = state != null && Long.parseLong(state[0]) == f.length()
+                    && Long.parseLong(state[1]) == f.lastModified();
+            long checksum = same ? Long.parseLong(state[2]) : checksum(f);
+            writer.println(f.getName() + "\t" + f.length() + "\t" + f.lastModified() + "\t" + checksum);
+        }
+        writer.close();
+    }
 }
@@ -2,8 +2,8 @@ package edu.nyu.cs.cs2580.index;
 
 import edu.nyu.cs.cs2580.SearchEngine;
 import edu.nyu.cs.cs2580.SearchEngine.Options;
-import edu.nyu.cs.cs2580.helper.Compressor;
-import edu.nyu.cs.cs2580.models.Document;
+import edu.nyu.cs.cs2580.helper.FilenameTable;
+import edu.nyu.cs.cs2580.helper.PostingsCodec;
 import edu.nyu.cs.cs2580.models.DocumentIndexed;
 import edu.nyu.cs.cs2580.models.QueryPhrase;
 
@@ -11,82 +11,170 @@ import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class IndexerInvertedCompressed extends Indexer {
 
     protected static final int PHRASES_TO_CACHE = 3;
-    Map<Long, Float> docIDToPageRank;
 
     protected IndexerInvertedCompressed(
             SearchEngine.Options options,
-            Map<String, Long> filenameToDocID,
-            String outputFileName,
-            File[] files,
-            int s,
-            int e,
-            Map<Long, DocumentIndexed> indexFromDocId,
-            Map<Long, Float> docIDToPageRank) {
+            String directory,
+            FilenameTable filenameToDocID,
+            Queue<File> filesToIndex,
+            AtomicInteger nextRunNumber,
+            long memoryBudget,
+            Map<Long, DocumentIndexed> indexFromDocId) {
         super(options);
-        this.outputFileName = outputFileName;
-        this.filesToIndex = files;
+        this.filesToIndex = filesToIndex;
+        this.nextRunNumber = nextRunNumber;
+        this.memoryBudget = memoryBudget;
         this.filenameToDocID = filenameToDocID;
-        this.organizer = new IndexOrganizer(options, this);
-        startIndex = s;
-        endIndex = e;
+        this.organizer = new IndexOrganizer(options, directory);
         this.indexFromDocId = indexFromDocId;
-        this.docIDToPageRank = docIDToPageRank;
+        this.codec = PostingsCodec.Factory.getCodecByName(options._postings_codec);
     }
 
-    LinkedHashMap<String, TreeMap<Long, ArrayList<Long>>> cachedPhrases =
-            new LinkedHashMap<String, TreeMap<Long, ArrayList<Long>>>(10, .5f, true) {
+    // Phrase matches, by index version and phrase.
+    LinkedHashMap<String, PostingList> cachedPhrases =
+            new LinkedHashMap<String, PostingList>(10, .5f, true) {
         @Override
         public boolean removeEldestEntry(Map.Entry eldest){
             return size() > PHRASES_TO_CACHE;   //size exceeded the max allowed
         }
     };
 
-    Map<String, TreeMap<Long, ArrayList<Long>>> indexFromToken = new ConcurrentHashMap<String, TreeMap<Long, ArrayList<Long>>>();
+    // Rough heap cost of a token in indexFromToken besides its characters and
+    // postings: the map entry, the String and the PostingsBuffer objects.
+    private static final int TOKEN_OVERHEAD_BYTES = 112;
+
+    // Postings of the documents inverted so far, while indexing.
+    Map<String, PostingsBuffer> indexFromToken = new ConcurrentHashMap<String, PostingsBuffer>();
+    // Estimated heap held by indexFromToken and termVectors.
+    private long postingsBytes = 0;
+    // Terms of the documents inverted so far, with forward_index.
+    Map<Integer, Map<String, Integer>> termVectors = new HashMap<Integer, Map<String, Integer>>();
+    // Codec of the posting lists built while serving, such as phrase matches.
+    private final PostingsCodec codec;
+    // Cursors over the tokens of the query of every serving thread, one per
+    // token however many there are. They stay on the last document matched
+    // by nextDoc(QueryPhrase, long), so documentTermFrequency(String, int)
+    // finds it there without a search. They are dropped at the start and end
+    // of every query, and once the thread serves another version of the index.
+    private final ThreadLocal<Long> cursorsVersion = new ThreadLocal<Long>();
+    private final ThreadLocal<Map<String, PostingsCursor>> cursors = new ThreadLocal<Map<String, PostingsCursor>>() {
+        @Override
+        protected Map<String, PostingsCursor> initialValue() {
+            return new HashMap<String, PostingsCursor>();
+        }
+    };
+
     public IndexerInvertedCompressed(Options options) {
         super(options);
-        organizer = new IndexOrganizer(options, this);
+        codec = PostingsCodec.Factory.getCodecByName(options._postings_codec);
         System.out.println("Using Indexer: " + this.getClass().getSimpleName());
     }
 
-    public byte[] encode(long[] postingList) {
-        return Compressor.convertToVBytes(Compressor.deltaEncode(postingList));
+    @Override
+    public void startQuery() {
+        super.startQuery();
+        cursors.get().clear();
     }
 
     @Override
-    public int corpusDocFrequencyByTerm(String term) {
-        getDocsWithToken(term);
-
-        Map<Long, ArrayList<Long>> map = indexFromToken.get(term);
+    public void endQuery() {
+        cursors.get().clear();
+        super.endQuery();
+    }
 
-        if (map == null) return 0;
-        else return map.size();
+    @Override
+    public int corpusDocFrequencyByTerm(String term) {
+        if (term.contains(" ")) return getDocumentsWithPhrase(term).size();
+        return segments().docFrequency(term);
     }
 
     @Override
     public int corpusTermFrequency(String term) {
-        getDocsWithToken(term);
-        Map<Long, ArrayList<Long>> map = indexFromToken.get(term);
-        if (map == null) return 0;
-        int frequency = 0;
-        for (Long doc : map.keySet()) frequency += map.get(doc).size();
-        return frequency;
+        if (term.contains(" ")) {
+            PostingsCursor phrase = getDocumentsWithPhrase(term).cursor();
+            int frequency = 0;
+            while (phrase.nextDoc() != PostingsCursor.NO_MORE_DOCS) frequency += phrase.termFrequency();
+            return frequency;
+        }
+        return (int) segments().corpusFrequency(term);
+    }
+
+    @Override
+    public int maxDocumentTermFrequency(String term) {
+        return segments().maxTermFrequency(term);
     }
 
     @Override
     public int documentTermFrequency(String term, String url) {
-        getDocsWithToken(term);
+        PostingList postings = getPostings(term);
+        if (postings == null) return 0;
+        PostingsCursor cursor = postings.cursor();
+        while (cursor.nextDoc() != PostingsCursor.NO_MORE_DOCS) {
+            if (url.equals(segments().url(cursor.docId())))
+                return cursor.termFrequency();
+        }
+        return 0;
+    }
 
-        int i = 0;
-        Map<Long, ArrayList<Long>> map = indexFromToken.get(term);
-        if (map == null) return 0;
-        for (Long docId : map.keySet()) {
-            if (indexFromDocId.get(docId).getUrl().equals(url)) return map.get(docId).size();
+    /**
+     * Constant time for the documents returned by nextDoc(QueryPhrase, long):
+     * the cursor of the term is already on it.
+     */
+    @Override
+    public int documentTermFrequency(String term, int docId) {
+        PostingsCursor cursor = cursorAt(term, docId);
+        return cursor != null && cursor.docId() == docId ? cursor.termFrequency() : 0;
+    }
+
+    /**
+     * Read from the occurrences of the cursors left on the documents returned
+     * by nextDoc(QueryPhrase, long), so it only decodes those of the document.
+     */
+    @Override
+    public int minimalSpan(List<String> terms, int docId) {
+        int[][] occurrences = new int[terms.size()][];
+        for (int t = 0; t < occurrences.length; t++) {
+            PostingsCursor cursor = cursorAt(terms.get(t), docId);
+            if (cursor == null || cursor.docId() != docId) return 0;
+            occurrences[t] = cursor.occurrences();
         }
-        return i;
+        return Spans.minimalWidth(occurrences);
+    }
+
+    @Override
+    public PostingsCursor postingsCursor(String term) {
+        PostingList postings = getPostings(term);
+        return postings == null ? null : postings.cursor();
+    }
+
+    /**
+     * The cursor of {@code token} kept for this thread, moved to the first
+     * document of at least {@code target}. It only starts over from the
+     * beginning of the posting list if it is already past the target.
+     *
+     * @return null if the token isn't in the index.
+     */
+    private PostingsCursor cursorAt(String token, int target) {
+        Map<String, PostingsCursor> threadCursors = cursors.get();
+        Long version = indexVersion();
+        if (!version.equals(cursorsVersion.get())) {
+            threadCursors.clear();
+            cursorsVersion.set(version);
+        }
+        PostingsCursor cursor = threadCursors.get(token);
+        if (cursor == null || cursor.docId() > target) {
+            PostingList postings = getPostings(token);
+            if (postings == null) return null;
+            cursor = postings.cursor();
+            threadCursors.put(token, cursor);
+        }
+        cursor.advance(target);
+        return cursor;
     }
     
     private String phrase_token="";
@@ -96,21 +184,31 @@ public class IndexerInvertedCompressed extends Indexer {
 
     @Override
     protected void processDocument(String url, long docId, String title, String body) throws IOException {
-        if (indexFromToken == null) indexFromToken = new ConcurrentHashMap<String, TreeMap<Long, ArrayList<Long>>>();
+        if (indexFromToken == null) indexFromToken = new ConcurrentHashMap<String, PostingsBuffer>();
         StringTokenizer st = new StringTokenizer(body);
-        long i = 0;
+        int i = 0;
         ConcurrentHashMap<String, Integer> local_phraseRank= new ConcurrentHashMap<String, Integer>();
         
         int count = 0;
         int phrase_window=0;
+        Map<String, Integer> termFrequencies = _options._forward_index ? new HashMap<String, Integer>() : null;
         while (st.hasMoreTokens()) {
             String token = st.nextToken();
+            if (termFrequencies != null) {
+                Integer tf = termFrequencies.get(token);
+                if (tf == null) postingsBytes += TOKEN_OVERHEAD_BYTES + 2 * token.length();
+                termFrequencies.put(token, tf == null ? 1 : tf + 1);
+            }
+            PostingsBuffer postings = indexFromToken.get(token);
             // If we haven't seen this token before.
-            if (indexFromToken.get(token) == null) indexFromToken.put(token, new TreeMap<Long, ArrayList<Long>>());
-
-            // If we have seen this docId for this token before.
-            if (indexFromToken.get(token).get(docId) == null) indexFromToken.get(token).put(docId, new ArrayList<Long>());
-            indexFromToken.get(token).get(docId).add(i++);
+            if (postings == null) {
+                postings = new PostingsBuffer();
+                indexFromToken.put(token, postings);
+                postingsBytes += TOKEN_OVERHEAD_BYTES + 2 * token.length() + postings.bytesUsed();
+            }
+            long before = postings.bytesUsed();
+            postings.add((int) docId, i++);
+            postingsBytes += postings.bytesUsed() - before;
             
             phrase_token+=token.toLowerCase()+' ';
           
@@ -181,183 +279,195 @@ public class IndexerInvertedCompressed extends Indexer {
    	 }   
    	 local_phraseRank=null;
         
+        if (termFrequencies != null) termVectors.put((int) docId, termFrequencies);
         DocumentIndexed doc = new DocumentIndexed(url, docId, i, title);
-        doc.setPageRank(docIDToPageRank.get(docId));
         indexFromDocId.put(docId, doc);
     }
 
     /**
-     * Take the current posting list and write it out to a file.
-     *
-     * Every line will be:
-     *    token (docId numberOfOccurrences index+)+
+     * Take the current posting list and write it out to a temporary index
+     * file, in the binary format of {@link IndexRun}, with the terms sorted.
+     * The term vectors go to a forward index run next to it.
      * @throws IOException
      */
     protected void flushIndexToFile(String outputFileName) throws IOException {
         if (indexFromToken != null) {
-            TreeMap<String, List<Long>> map = new TreeMap<String, List<Long>>();
-            Set<String> tokens = new HashSet<String>(indexFromToken.keySet());
-            for (String token : tokens) {
-                map.put(token, buildPostingList(indexFromToken.get(token)));
+            TreeMap<String, PostingsBuffer> map = new TreeMap<String, PostingsBuffer>(indexFromToken);
+            long bytes = 0, occurrences = 0;
+            for (PostingsBuffer postings : map.values()) {
+                bytes += postings.bytesUsed();
+                for (int d = 0; d < postings.size(); d++) occurrences += postings.getTermFrequency(d);
             }
+            System.out.println(outputFileName + ": " + occurrences + " occurrences held in " + bytes
+                    + " bytes (" + (occurrences == 0 ? 0 : bytes / (double) occurrences) + " bytes per occurrence).");
             organizer.write(map, outputFileName);
             indexFromToken = null;
+            postingsBytes = 0;
         }
-    }
-
-    /**
-     * Create the standard posting list format given a Map from DocId to a list of
-     * indices. The format is:
-     *    "[docId] [# of occurrences] {list of occurrences}"
-     * @param occurrences
-     * @return
-     */
-    protected List<Long> buildPostingList(TreeMap<Long, ArrayList<Long>> occurrences) {
-        List<Long> result = new ArrayList<Long>();
-        List<Long> docs = new ArrayList<Long>(occurrences.keySet());
-        Collections.sort(docs);
-        for (Long docId : docs) {
-            ArrayList<Long> indices = occurrences.get(docId);
-            result.add(docId);
-            result.add((long) indices.size());
-            result.addAll(indices);
+        if (!termVectors.isEmpty()) {
+            organizer.writeTermVectors(termVectors,
+                    outputFileName.replace(IndexOrganizer.DOC_INDEX_PREFIX, ForwardIndex.RUN_PREFIX));
+            termVectors.clear();
         }
-        return result;
     }
 
     @Override
-    public DocumentIndexed nextDoc(QueryPhrase query, long docid) {
-        List<Long> docsWithAllTokens = new ArrayList<Long>(getDocsWithTokens(query._tokens));
-        Collections.sort(docsWithAllTokens);
-        int i = Collections.binarySearch(docsWithAllTokens, (long) docid);
-
-        // If we didn't find this docId in the list, this is the negative of the
-        // index of the first document with higher id.
-        if (i < 0) {
-            i *= -1;
-            if (i >= docsWithAllTokens.size()) return null;
-            else return indexFromDocId.get(docsWithAllTokens.get(i - 1));
-        }
-
-        // If we found the actual doc id, return the one after it.
-        if (i + 1 >= docsWithAllTokens.size()) return null;
+    long postingsMemoryUsed() {
+        return postingsBytes;
+    }
 
-        return indexFromDocId.get(docsWithAllTokens.get(i + 1));
+    @Override
+    long preload(String term) {
+        PostingList postings = getPostings(term);
+        return postings == null ? 0 : postings.bytesUsed();
     }
 
-    private Set<Long> getDocsWithTokens(Iterable<String> tokens) {
-        List<Set<Long>> docsWithToken = new ArrayList<Set<Long>>();
-        for (String token : tokens) docsWithToken.add(getDocsWithToken(token));
-        return intersection(docsWithToken);
+    /**
+     * Picks up from where the cursors of the previous call were left, so
+     * walking all the results of a query reads each posting list once.
+     */
+    @Override
+    public DocumentIndexed nextDoc(QueryPhrase query, long docid) {
+        List<PostingsCursor> cursors = new ArrayList<PostingsCursor>();
+        for (String token : query._tokens) {
+            PostingsCursor cursor = cursorAt(token, (int) docid + 1);
+            // Tokens which aren't in the index don't restrict the results.
+            if (cursor != null) cursors.add(cursor);
+        }
+        if (cursors.isEmpty()) return null;
+        int next = nextDocWithAll(rarestFirst(cursors), (int) docid + 1);
+        if (next == PostingsCursor.NO_MORE_DOCS) return null;
+        return getDoc(next);
     }
 
-    private Set<Long> intersection(List<Set<Long>> sets) {
-        Set<Long> result = new HashSet<Long>();
-        for (Set<Long> set : sets) {
-            if (set != null) {
-                if (result.isEmpty()) result.addAll(set);
-                else {
-                    Set<Long> newResult = new HashSet<Long>(result);
-                    for (Long s : result) {
-                        if (!set.contains(s)) newResult.remove(s);
-                    }
-                    result = newResult;
-                }
+    /**
+     * Leapfrog the cursors until they all agree on a document. The first
+     * cursor leads: every other one is advanced to its document, and the
+     * first one to overshoot moves the lead past that. Each cursor only ever
+     * moves forward, skipping whole blocks when it can, so the lead should be
+     * the rarest token, see {@link #rarestFirst(List)}.
+     *
+     * @return the first doc id of at least {@code target} which is in every
+     * list, or NO_MORE_DOCS. All cursors are positioned on it.
+     */
+    private int nextDocWithAll(List<PostingsCursor> cursors, int target) {
+        PostingsCursor lead = cursors.get(0);
+        int docId = lead.advance(target);
+        for (int i = 1; i < cursors.size() && docId != PostingsCursor.NO_MORE_DOCS; ) {
+            int other = cursors.get(i).advance(docId);
+            if (other == docId) {
+                i++;
+            } else {
+                docId = lead.advance(other);
+                i = 1;
             }
         }
-        return result;
+        return docId;
     }
 
-    private Set<Long> getDocsWithToken(String token) {
-        if (token.contains(" ")) {
-            TreeMap<Long, ArrayList<Long>> map = getDocumentsWithPhrase(token);
-            if (indexFromToken.get(token) == null) indexFromToken.put(token, new TreeMap<Long, ArrayList<Long>>());
-            indexFromToken.get(token).putAll(map);
-            return map.keySet();
-        }
-        else {
-            buildIndexFor(token, organizer.loadIndexFor(token));
-            if (indexFromToken.containsKey(token)) return indexFromToken.get(token).keySet();
-            else return null;
-        }
+    /**
+     * The cursors by increasing document frequency.
+     */
+    private static List<PostingsCursor> rarestFirst(List<PostingsCursor> cursors) {
+        List<PostingsCursor> sorted = new ArrayList<PostingsCursor>(cursors);
+        Collections.sort(sorted, new Comparator<PostingsCursor>() {
+            @Override
+            public int compare(PostingsCursor c1, PostingsCursor c2) {
+                return c1.docFrequency() - c2.docFrequency();
+            }
+        });
+        return sorted;
     }
 
-    public void buildIndexFor(String token, byte[] bytes) {
-        if (indexFromToken.containsKey(token)) return;
-        if (bytes != null) indexFromToken.put(token, read(bytes));
+    /**
+     * Doc ids and frequencies of {@code token}, which may be a phrase.
+     *
+     * @return null if the token isn't in the index.
+     */
+    private PostingList getPostings(String token) {
+        if (token.contains(" ")) return getDocumentsWithPhrase(token);
+        return segments().getPostings(token);
     }
 
-    private TreeMap<Long, ArrayList<Long>> read(byte[] bytes) {
-        TreeMap<Long, ArrayList<Long>> map = new TreeMap<Long, ArrayList<Long>>();
-
-        // If the word isn't in our index.
-        if (bytes != null) {
-            int[] postingList = Compressor.decodeVBytes(bytes);
-            long offset = 0;
-            int postingListIndex = 0;
-            while (postingListIndex < postingList.length) {
-                ArrayList<Long> list = new ArrayList<Long>();
-                long relativeDocId = (long) postingList[postingListIndex++];
-                relativeDocId += offset;
-                offset = relativeDocId;
-                map.put(relativeDocId, list);
-                int numOccurrences = postingList[postingListIndex++];
-
-                long occurrenceOffset = 0;
-                for (int j = 0; j < numOccurrences; j++) {
-                    long relativeOcc = postingList[postingListIndex++];
-                    relativeOcc += occurrenceOffset;
-                    occurrenceOffset = relativeOcc;
-                    list.add(relativeOcc);
-                }
-            }
+    /**
+     * The documents of a phrase or of a NEAR group, see {@link QueryPhrase},
+     * with their numbers of matches.
+     */
+    private PostingList getDocumentsWithPhrase(String queryPhrase) {
+        String key = indexVersion() + "\t" + queryPhrase;
+        synchronized (cachedPhrases) {
+            if (cachedPhrases.containsKey(key))
+                return cachedPhrases.get(key);
         }
 
-        return map;
-    }
+        String[] tokens = QueryPhrase.words(queryPhrase);
+        boolean near = QueryPhrase.isNear(queryPhrase);
+        List<PostingsCursor> cursors = new ArrayList<PostingsCursor>();
+        for (String token : tokens) {
+            PostingList postings = getPostings(token);
+            if (postings != null) cursors.add(postings.cursor());
+        }
 
-    private TreeMap<Long, ArrayList<Long>> getDocumentsWithPhrase(String queryPhrase) {
-        if (cachedPhrases.containsKey(queryPhrase))
-            return cachedPhrases.get(queryPhrase);
-        TreeMap<Long, ArrayList<Long>> result = new TreeMap<Long, ArrayList<Long>>();
-
-        String[] tokens = queryPhrase.split("\\s+");
-        Set<Long> docsWithAllTokens = getDocsWithTokens(Arrays.asList(tokens));
-
-        for (Long docID : docsWithAllTokens) {
-            Document doc = indexFromDocId.get(docID);
-            long i = -1;
-            // weHaveAWinner returns a positive index greater than i in the
-            // document if the phrase was found. -1 otherwise.
-            while ((i = weHaveAWinner(doc, tokens, i)) != -1){
-                long id = doc._docid;
-                if (!result.containsKey(id)) result.put(id, new ArrayList<Long>());
-                result.get(id).add(i);
+        PostingsBuffer matches = new PostingsBuffer();
+        if (cursors.size() == tokens.length) {
+            int docId = 0;
+            int[][] tokenOccurrences = new int[tokens.length][];
+            List<PostingsCursor> rarestFirst = rarestFirst(cursors);
+            while ((docId = nextDocWithAll(rarestFirst, docId + 1)) != PostingsCursor.NO_MORE_DOCS) {
+                for (int t = 0; t < tokens.length; t++) tokenOccurrences[t] = cursors.get(t).occurrences();
+                if (near) addNearMatches(docId, tokenOccurrences, QueryPhrase.nearWindow(queryPhrase), matches);
+                else addPhraseMatches(docId, tokenOccurrences, matches);
             }
         }
-        cachedPhrases.put(queryPhrase, result);
+        PostingList result = new PostingList(matches.encode(codec), codec);
+        synchronized (cachedPhrases) {
+            cachedPhrases.put(key, result);
+        }
         return result;
     }
 
-    private long weHaveAWinner(Document doc, String[] tokens, long i) {
-        Map<String, ArrayList<Long>> mapFromTokenToOccurrences = new HashMap<String, ArrayList<Long>>();
-        for (String token : tokens) {
-            getDocsWithToken(token);
-            if (indexFromToken.containsKey(token)) mapFromTokenToOccurrences.put(token, indexFromToken.get(token).get((long) doc._docid));
+    /**
+     * Add every position of the phrase in one document to {@code matches}:
+     * the positions p of its first token where token t is at p + t for every
+     * t. The occurrences of the rarest token lead, and every other list is
+     * walked forward once alongside them, so a document takes time linear in
+     * its occurrences of the phrase tokens.
+     *
+     * @param occurrences sorted occurrences of every token of the phrase in one document.
+     */
+    private static void addPhraseMatches(int docId, int[][] occurrences, PostingsBuffer matches) {
+        int lead = 0;
+        for (int t = 1; t < occurrences.length; t++) {
+            if (occurrences[t].length < occurrences[lead].length) lead = t;
         }
-        if (mapFromTokenToOccurrences.get(tokens[0]) != null) {
-            for (long occurrence : mapFromTokenToOccurrences.get(tokens[0])) {
-                if (occurrence > i) {
-                    boolean flag = true;
-                    for (int j = 1; flag && j < tokens.length; j++) {
-                        if (!mapFromTokenToOccurrences.containsKey(tokens[j]) || !mapFromTokenToOccurrences.get(tokens[j]).contains(occurrence + j)) flag = false;
-                    }
-                    if (flag) {
-                        return occurrence;
-                    }
-                }
+        int[] next = new int[occurrences.length];
+        for (int occurrence : occurrences[lead]) {
+            int start = occurrence - lead;
+            if (start < 0) continue;
+            boolean match = true;
+            for (int t = 0; match && t < occurrences.length; t++) {
+                if (t == lead) continue;
+                int[] positions = occurrences[t];
+                while (next[t] < positions.length && positions[next[t]] < start + t) next[t]++;
+                // No later start can match either once a list runs out.
+                if (next[t] == positions.length) return;
+                match = positions[next[t]] == start + t;
             }
+            if (match) matches.add(docId, start);
+        }
+    }
+
+    /**
+     * Add the start of every minimal window of one document holding all the
+     * words of a NEAR group, with at most {@code window} other words, to
+     * {@code matches}.
+     *
+     * @param occurrences sorted occurrences of every word of the group in one document.
+     */
+    private static void addNearMatches(int docId, int[][] occurrences, int window, PostingsBuffer matches) {
+        Spans spans = new Spans(occurrences);
+        while (spans.next()) {
+            if (spans.width() - occurrences.length <= window) matches.add(docId, spans.start());
         }
-        return -1;
     }
 }
@@ -0,0 +1,247 @@
+package edu.nyu.cs.cs2580.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sorted term dictionary for the final index files.
+ * <p/>
+ * Every term written by IndexOrganizer.mergeAndSplit() gets one fixed width entry
+ * recording which final index file holds its posting list, where the posting
+ * list starts in that file, how many bytes it takes and some corpus statistics.
+ * The impact ordered list of the term, if the index has them, follows its
+ * posting list in the same file (see {@link ImpactCursor}).
+ * Since the entries are sorted by term and have a fixed width, finding a term
+ * is a binary search over the memory mapped file.
+ * <p/>
+ * The file layout is:
+ * <pre>
+ *   int numTerms
+ *   int numFiles
+ *   long termsOffset       -- start of the term blob
+ *   long filesOffset       -- start of the postings codec name and file name table
+ *   numTerms entries of ENTRY_BYTES each (see {@link Entry})
+ *   term blob (UTF-8 bytes of every term, back to back)
+ *   postings codec name (writeUTF)
+ *   numFiles file names (writeUTF)
+ * </pre>
+ */
+public class Lexicon {
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+    // termOffset, termLength, file, offset, length, df, cf, maxTf, impactLength
+    private static final int ENTRY_BYTES = 4 + 4 + 4 + 8 + 4 + 4 + 8 + 4 + 4;
+
+    /**
+     * Where a posting list lives and the statistics of its term.
+     */
+    public static class Entry {
+        public final String term;
+        public final int file;
+        public final long offset;
+        public final int length;
+        public final int docFrequency;
+        public final long corpusFrequency;
+        // Largest number of occurrences of the term in a single document.
+        public final int maxTermFrequency;
+        // Bytes of the impact ordered list right after the posting list, 0 if
+        // the index was written without them.
+        public final int impactLength;
+
+        Entry(String term, int file, long offset, int length,
+              int docFrequency, long corpusFrequency, int maxTermFrequency, int impactLength) {
+            this.term = term;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.docFrequency = docFrequency;
+            this.corpusFrequency = corpusFrequency;
+            this.maxTermFrequency = maxTermFrequency;
+            this.impactLength = impactLength;
+        }
+    }
+
+    /**
+     * Builds a lexicon file. Terms must be added in sorted order.
+     */
+    public static class Writer {
+        private final File lexiconFile;
+        private final String codecName;
+        private final List<String> files = new ArrayList<String>();
+        private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        private final DataOutputStream entries = new DataOutputStream(entryBytes);
+        private final ByteArrayOutputStream terms = new ByteArrayOutputStream();
+        private int numTerms = 0;
+
+        public Writer(File lexiconFile, String codecName) {
+            this.lexiconFile = lexiconFile;
+            this.codecName = codecName;
+        }
+
+        /**
+         * Registers a new final index file and returns its number.
+         */
+        public int addFile(String name) {
+            files.add(name);
+            return files.size() - 1;
+        }
+
+        public void add(String term, int file, long offset, int length,
+                        int df, long cf, int maxTf, int impactLength) throws IOException {
+            byte[] termBytes = term.getBytes("UTF-8");
+            entries.writeInt(terms.size());
+            entries.writeInt(termBytes.length);
+            entries.writeInt(file);
+            entries.writeLong(offset);
+            entries.writeInt(length);
+            entries.writeInt(df);
+            entries.writeLong(cf);
+            entries.writeInt(maxTf);
+            entries.writeInt(impactLength);
+            terms.write(termBytes);
+            numTerms++;
+        }
+
+        public void close() throws IOException {
+            entries.flush();
+            long termsOffset = HEADER_BYTES + (long) numTerms * ENTRY_BYTES;
+            long filesOffset = termsOffset + terms.size();
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(lexiconFile)));
+            out.writeInt(numTerms);
+            out.writeInt(files.size());
+            out.writeLong(termsOffset);
+            out.writeLong(filesOffset);
+            entryBytes.writeTo(out);
+            terms.writeTo(out);
+            out.writeUTF(codecName);
+            for (String name : files) out.writeUTF(name);
+            out.close();
+            System.out.println("Wrote lexicon of " + numTerms + " terms to " + lexiconFile);
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int numTerms;
+    private final long termsOffset;
+    private final String codecName;
+    private final String[] files;
+
+    private Lexicon(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        numTerms = buffer.getInt(0);
+        int numFiles = buffer.getInt(4);
+        termsOffset = buffer.getLong(8);
+        long filesOffset = buffer.getLong(16);
+
+        ByteBuffer names = buffer.duplicate();
+        names.position((int) filesOffset);
+        codecName = readUTF(names);
+        files = new String[numFiles];
+        for (int i = 0; i < numFiles; i++) files[i] = readUTF(names);
+    }
+
+    private static String readUTF(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    public static Lexicon open(File lexiconFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(lexiconFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return new Lexicon(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            file.close();
+        }
+    }
+
+    public int size() {
+        return numTerms;
+    }
+
+    /**
+     * Name of the {@link edu.nyu.cs.cs2580.helper.PostingsCodec} the posting
+     * lists were written with.
+     */
+    public String getCodecName() {
+        return codecName;
+    }
+
+    public int numFiles() {
+        return files.length;
+    }
+
+    public String getFileName(int file) {
+        return files[file];
+    }
+
+    /**
+     * The i-th entry in term order, for walking the whole lexicon.
+     */
+    public Entry get(int i) {
+        return entryAt(i);
+    }
+
+    public String getTerm(int i) {
+        return termAt(i);
+    }
+
+    /**
+     * Binary search for {@code term}.
+     *
+     * @return the entry of the term or null if it isn't in the index.
+     */
+    public Entry lookup(String term) {
+        int i = indexOf(term);
+        return i < 0 ? null : entryAt(i);
+    }
+
+    /**
+     * Binary search for {@code term}.
+     *
+     * @return the position of the term in term order, or -1 if it isn't in
+     * the index.
+     */
+    public int indexOf(String term) {
+        int low = 0, high = numTerms - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = termAt(mid).compareTo(term);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private String termAt(int i) {
+        int base = HEADER_BYTES + i * ENTRY_BYTES;
+        byte[] bytes = new byte[buffer.getInt(base + 4)];
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) termsOffset + buffer.getInt(base));
+        view.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e); // Should never happen.
+        }
+    }
+
+    private Entry entryAt(int i) {
+        int base = HEADER_BYTES + i * ENTRY_BYTES;
+        return new Entry(termAt(i),
+                buffer.getInt(base + 8),
+                buffer.getLong(base + 12),
+                buffer.getInt(base + 20),
+                buffer.getInt(base + 24),
+                buffer.getLong(base + 28),
+                buffer.getInt(base + 36),
+                buffer.getInt(base + 40));
+    }
+}
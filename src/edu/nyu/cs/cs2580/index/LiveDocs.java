@@ -0,0 +1,105 @@
+package edu.nyu.cs.cs2580.index;
+
+import java.io.*;
+
+/**
+ * The documents of an index segment which were deleted since it was written,
+ * as a bitset over the doc ids of the segment. Segments themselves are never
+ * rewritten: their deleted documents are skipped by {@link PostingsCursor}
+ * and only dropped when the segment is merged.
+ * <p/>
+ * A segment without a deleted.docs file has no deleted documents. The file is
+ * replaced as a whole, by renaming a new one over it:
+ * <pre>
+ *   int firstDocId
+ *   int numWords
+ *   long[numWords] deleted   -- bit i is set if firstDocId + i is deleted
+ * </pre>
+ */
+public class LiveDocs {
+
+    public static final String FILENAME = "/deleted.docs";
+
+    private final int firstDocId;
+    private final long[] deleted;
+    private int numDeleted = 0;
+
+    /**
+     * All documents from {@code firstDocId} to {@code lastDocId} live.
+     */
+    public LiveDocs(int firstDocId, int lastDocId) {
+        this.firstDocId = firstDocId;
+        deleted = new long[((lastDocId - firstDocId) >> 6) + 1];
+    }
+
+    private LiveDocs(int firstDocId, long[] deleted) {
+        this.firstDocId = firstDocId;
+        this.deleted = deleted;
+        for (long word : deleted) numDeleted += Long.bitCount(word);
+    }
+
+    /**
+     * Read the deleted documents of the segment in {@code directory}.
+     */
+    public static LiveDocs read(String directory, Segments.Info info) throws IOException {
+        File file = new File(directory + FILENAME);
+        if (!file.exists()) return new LiveDocs(info.firstDocId, info.lastDocId);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int firstDocId = in.readInt();
+            long[] deleted = new long[in.readInt()];
+            for (int i = 0; i < deleted.length; i++) deleted[i] = in.readLong();
+            return new LiveDocs(firstDocId, deleted);
+        } finally {
+            in.close();
+        }
+    }
+
+    public void write(String directory) throws IOException {
+        File file = new File(directory + FILENAME);
+        File temp = new File(directory + FILENAME + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        out.writeInt(firstDocId);
+        out.writeInt(deleted.length);
+        for (long word : deleted) out.writeLong(word);
+        out.close();
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) throw new IOException("Could not replace " + file);
+        }
+    }
+
+    public boolean isLive(int docId) {
+        int i = docId - firstDocId;
+        return i < 0 || (i >> 6) >= deleted.length || (deleted[i >> 6] & (1L << i)) == 0;
+    }
+
+    /**
+     * @return false if the document was already deleted.
+     */
+    public boolean delete(int docId) {
+        if (!isLive(docId)) return false;
+        int i = docId - firstDocId;
+        deleted[i >> 6] |= 1L << i;
+        numDeleted++;
+        return true;
+    }
+
+    public int numDeleted() {
+        return numDeleted;
+    }
+
+    /**
+     * Deleted doc ids in increasing order.
+     */
+    public int[] deletedDocIds() {
+        int[] docIds = new int[numDeleted];
+        int n = 0;
+        for (int w = 0; w < deleted.length; w++) {
+            for (long word = deleted[w]; word != 0; word &= word - 1) {
+                docIds[n++] = firstDocId + (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return docIds;
+    }
+}
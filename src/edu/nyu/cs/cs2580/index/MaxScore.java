@@ -0,0 +1,130 @@
+package edu.nyu.cs.cs2580.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The best documents with any of several tokens, scored by the weighted sum
+ * of their numbers of occurrences, found with MaxScore (Turtle and Flood,
+ * "Query evaluation: strategies and optimizations", 1995). The same documents
+ * as {@link BlockMaxWand}, found another way, so the two can be compared.
+ * <p/>
+ * The tokens are ordered by the largest score their lists can give a
+ * document. Once the k-th best score found so far is at least the sum of
+ * those of the first tokens, no document having only those tokens can make
+ * the top k: they are non-essential. Candidates are only taken from the lists
+ * of the essential tokens, in doc id order, and the non-essential lists are
+ * then probed for them with advance(int), from the largest bound down, only
+ * as long as the score so far plus the bounds of the lists left can still
+ * beat the k-th score. With the many tokens of a long query, most lists end
+ * up non-essential and are only ever skipped through.
+ */
+public class MaxScore {
+
+    private final PostingsCursor[] cursors;
+    private final double[] weights;
+    // Largest score every list can give a document, increasing.
+    private final double[] upperBounds;
+    private int numScored = 0;
+    private int numProbed = 0;
+
+    /**
+     * @param cursors new cursors over the posting lists of the tokens.
+     * @param weights score of one occurrence of every token.
+     */
+    public MaxScore(List<PostingsCursor> cursors, double[] weights) {
+        int n = cursors.size();
+        final double[] bounds = new double[n];
+        Integer[] order = new Integer[n];
+        for (int t = 0; t < n; t++) {
+            bounds[t] = cursors.get(t).maxTermFrequency() * weights[t];
+            order[t] = t;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer t1, Integer t2) {
+                return Double.compare(bounds[t1], bounds[t2]);
+            }
+        });
+        this.cursors = new PostingsCursor[n];
+        this.weights = new double[n];
+        upperBounds = new double[n];
+        for (int i = 0; i < n; i++) {
+            this.cursors[i] = cursors.get(order[i]);
+            this.weights[i] = weights[order[i]];
+            upperBounds[i] = bounds[order[i]];
+        }
+    }
+
+    /**
+     * The {@code k} documents of highest score, in no particular order. Of
+     * documents with the same score, the first ones are kept.
+     */
+    public List<BlockMaxWand.Hit> topDocs(int k) {
+        PriorityQueue<BlockMaxWand.Hit> heap =
+                new PriorityQueue<BlockMaxWand.Hit>(Math.max(k, 1) + 1, BlockMaxWand.WORST_FIRST);
+        int n = cursors.length;
+        // Largest score of a document having only the tokens up to i.
+        double[] prefixBounds = new double[n];
+        for (int i = 0; i < n; i++) {
+            prefixBounds[i] = (i > 0 ? prefixBounds[i - 1] : 0) + upperBounds[i];
+            cursors[i].nextDoc();
+        }
+
+        // Tokens before firstEssential are non-essential.
+        int firstEssential = 0;
+        double threshold = 0;
+        while (k > 0 && firstEssential < n) {
+            int docId = PostingsCursor.NO_MORE_DOCS;
+            for (int i = firstEssential; i < n; i++) docId = Math.min(docId, cursors[i].docId());
+            if (docId == PostingsCursor.NO_MORE_DOCS) break;
+
+            double score = 0;
+            for (int i = firstEssential; i < n; i++) {
+                if (cursors[i].docId() == docId) {
+                    score += cursors[i].termFrequency() * weights[i];
+                    cursors[i].nextDoc();
+                }
+            }
+            boolean pruned = false;
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                if (score + prefixBounds[i] <= threshold) {
+                    pruned = true;
+                    break;
+                }
+                numProbed++;
+                if (cursors[i].advance(docId) == docId) score += cursors[i].termFrequency() * weights[i];
+            }
+            if (pruned) continue;
+
+            numScored++;
+            if (heap.size() < k || score > threshold) {
+                heap.add(new BlockMaxWand.Hit(docId, score));
+                if (heap.size() > k) heap.poll();
+                if (heap.size() == k) {
+                    threshold = heap.peek().score;
+                    while (firstEssential < n && prefixBounds[firstEssential] <= threshold) firstEssential++;
+                }
+            }
+        }
+        return new ArrayList<BlockMaxWand.Hit>(heap);
+    }
+
+    /**
+     * Number of candidates fully scored by the last topDocs(int).
+     */
+    public int numScored() {
+        return numScored;
+    }
+
+    /**
+     * Number of times the last topDocs(int) looked a candidate up in a
+     * non-essential list.
+     */
+    public int numProbed() {
+        return numProbed;
+    }
+}
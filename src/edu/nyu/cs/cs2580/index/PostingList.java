@@ -0,0 +1,259 @@
+package edu.nyu.cs.cs2580.index;
+
+import edu.nyu.cs.cs2580.helper.Compressor;
+import edu.nyu.cs.cs2580.helper.PostingsCodec;
+import edu.nyu.cs.cs2580.helper.VByteCursor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The posting list of a single token as it is stored in the final index files.
+ * <p/>
+ * Postings are grouped in blocks of BLOCK_SIZE documents. A skip table at the
+ * front records, for every block, its last doc id and how many bytes it takes,
+ * so a {@link PostingsCursor} can jump over whole blocks without decoding them.
+ * It also records the largest number of occurrences in every block, which
+ * bounds the score of its documents (see {@link BlockMaxWand}).
+ * Inside a block, doc ids, number of occurrences and occurrences are separate
+ * streams compressed with the {@link PostingsCodec} of the index. The header and
+ * skip table are always VByte. All occurrences come last, so readers which only
+ * need doc ids and frequencies never touch them:
+ * <pre>
+ *   numDocs numBlocks
+ *   per block: lastDocId-gap docBytes tfBytes occurrenceBytes maxTf
+ *   per block: [docId gaps] [numOccs per doc]
+ *   per block: [occurrence gaps]  -- per doc, restarting from 0 for every doc
+ * </pre>
+ * Doc id gaps continue across blocks: the first doc of a block is stored
+ * relative to the last doc of the previous block.
+ * <p/>
+ * A list may also be the concatenation of the lists of the same token in
+ * several index segments, see {@link #concat(List)}. Its blocks then point into
+ * several byte arrays, possibly compressed with different codecs.
+ * <p/>
+ * Documents deleted from a segment stay in its lists. A list read with the
+ * {@link LiveDocs} of its segment hides them from its cursors.
+ */
+public class PostingList {
+
+    public static final int BLOCK_SIZE = 128;
+
+    final int numDocs;
+    final int numBlocks;
+    // Per block: the bytes and codec it's read with, its number of documents,
+    // the doc id its first doc id gap is relative to and its last doc id.
+    final byte[][] blockBytes;
+    final PostingsCodec[] blockCodecs;
+    // Per block: the documents deleted from it, null if there are none.
+    final LiveDocs[] blockLiveDocs;
+    final int[] blockSizes;
+    final int[] docBases;
+    final int[] lastDocIds;
+    // Per block: the largest number of occurrences of a document in it.
+    final int[] blockMaxTfs;
+    // Per block: byte offsets of its doc ids, numbers of occurrences and
+    // occurrences.
+    final int[] docStarts;
+    final int[] tfStarts;
+    final int[] occurrenceStarts;
+
+    public PostingList(byte[] bytes, PostingsCodec codec) {
+        this(bytes, codec, null);
+    }
+
+    /**
+     * @param liveDocs the documents deleted from the segment of the list, or
+     *                 null if none are.
+     */
+    public PostingList(byte[] bytes, PostingsCodec codec, LiveDocs liveDocs) {
+        VByteCursor header = new VByteCursor(bytes);
+        numDocs = header.next();
+        numBlocks = header.next();
+
+        blockBytes = new byte[numBlocks][];
+        blockCodecs = new PostingsCodec[numBlocks];
+        blockLiveDocs = new LiveDocs[numBlocks];
+        blockSizes = new int[numBlocks];
+        docBases = new int[numBlocks];
+        lastDocIds = new int[numBlocks];
+        blockMaxTfs = new int[numBlocks];
+        docStarts = new int[numBlocks];
+        tfStarts = new int[numBlocks];
+        occurrenceStarts = new int[numBlocks];
+        int[] docBytes = new int[numBlocks];
+        int[] tfBytes = new int[numBlocks];
+        int[] occurrenceBytes = new int[numBlocks];
+        int lastDocId = 0;
+        for (int b = 0; b < numBlocks; b++) {
+            blockBytes[b] = bytes;
+            blockCodecs[b] = codec;
+            blockLiveDocs[b] = liveDocs;
+            blockSizes[b] = b + 1 < numBlocks ? BLOCK_SIZE : numDocs - b * BLOCK_SIZE;
+            docBases[b] = lastDocId;
+            lastDocId += header.next();
+            lastDocIds[b] = lastDocId;
+            docBytes[b] = header.next();
+            tfBytes[b] = header.next();
+            occurrenceBytes[b] = header.next();
+            blockMaxTfs[b] = header.next();
+        }
+        int offset = header.position();
+        for (int b = 0; b < numBlocks; b++) {
+            docStarts[b] = offset;
+            tfStarts[b] = offset + docBytes[b];
+            offset = tfStarts[b] + tfBytes[b];
+        }
+        for (int b = 0; b < numBlocks; b++) {
+            occurrenceStarts[b] = offset;
+            offset += occurrenceBytes[b];
+        }
+    }
+
+    private PostingList(int numDocs, int numBlocks) {
+        this.numDocs = numDocs;
+        this.numBlocks = numBlocks;
+        blockBytes = new byte[numBlocks][];
+        blockCodecs = new PostingsCodec[numBlocks];
+        blockLiveDocs = new LiveDocs[numBlocks];
+        blockSizes = new int[numBlocks];
+        docBases = new int[numBlocks];
+        lastDocIds = new int[numBlocks];
+        blockMaxTfs = new int[numBlocks];
+        docStarts = new int[numBlocks];
+        tfStarts = new int[numBlocks];
+        occurrenceStarts = new int[numBlocks];
+    }
+
+    /**
+     * A single list over the blocks of {@code lists}, without copying them.
+     * The lists must hold increasing, disjoint ranges of doc ids, like the
+     * segments of an index.
+     */
+    public static PostingList concat(List<PostingList> lists) {
+        if (lists.size() == 1) return lists.get(0);
+        int numDocs = 0, numBlocks = 0;
+        for (PostingList list : lists) {
+            numDocs += list.numDocs;
+            numBlocks += list.numBlocks;
+        }
+        PostingList result = new PostingList(numDocs, numBlocks);
+        int b = 0;
+        for (PostingList list : lists) {
+            System.arraycopy(list.blockBytes, 0, result.blockBytes, b, list.numBlocks);
+            System.arraycopy(list.blockCodecs, 0, result.blockCodecs, b, list.numBlocks);
+            System.arraycopy(list.blockLiveDocs, 0, result.blockLiveDocs, b, list.numBlocks);
+            System.arraycopy(list.blockSizes, 0, result.blockSizes, b, list.numBlocks);
+            System.arraycopy(list.docBases, 0, result.docBases, b, list.numBlocks);
+            System.arraycopy(list.lastDocIds, 0, result.lastDocIds, b, list.numBlocks);
+            System.arraycopy(list.blockMaxTfs, 0, result.blockMaxTfs, b, list.numBlocks);
+            System.arraycopy(list.docStarts, 0, result.docStarts, b, list.numBlocks);
+            System.arraycopy(list.tfStarts, 0, result.tfStarts, b, list.numBlocks);
+            System.arraycopy(list.occurrenceStarts, 0, result.occurrenceStarts, b, list.numBlocks);
+            b += list.numBlocks;
+        }
+        return result;
+    }
+
+    /**
+     * Encode sorted doc ids, their number of occurrences and all occurrences,
+     * doc after doc.
+     */
+    public static byte[] encode(int[] docIds, int[] termFrequencies, int[] occurrences, PostingsCodec codec) {
+        int numBlocks = (docIds.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] skipTable = new int[5 * numBlocks];
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        ByteArrayOutputStream occurrenceBlocks = new ByteArrayOutputStream();
+        try {
+            int lastDocId = 0, occ = 0;
+            for (int b = 0; b < numBlocks; b++) {
+                int from = b * BLOCK_SIZE, to = Math.min(from + BLOCK_SIZE, docIds.length);
+                int[] docGaps = new int[to - from];
+                int[] tfs = new int[to - from];
+                int numOccurrences = 0, maxTf = 0;
+                for (int i = from; i < to; i++) {
+                    numOccurrences += termFrequencies[i];
+                    maxTf = Math.max(maxTf, termFrequencies[i]);
+                }
+                int[] occurrenceGaps = new int[numOccurrences];
+                int k = 0;
+                for (int i = from; i < to; i++) {
+                    docGaps[i - from] = docIds[i] - (i == from ? lastDocId : docIds[i - 1]);
+                    tfs[i - from] = termFrequencies[i];
+                    int base = 0;
+                    for (int j = 0; j < termFrequencies[i]; j++) {
+                        occurrenceGaps[k++] = occurrences[occ] - base;
+                        base = occurrences[occ++];
+                    }
+                }
+                byte[] docBytes = codec.encode(docGaps, docGaps.length);
+                byte[] tfBytes = codec.encode(tfs, tfs.length);
+                byte[] occurrenceBytes = codec.encode(occurrenceGaps, occurrenceGaps.length);
+                skipTable[5 * b] = docIds[to - 1] - lastDocId;
+                skipTable[5 * b + 1] = docBytes.length;
+                skipTable[5 * b + 2] = tfBytes.length;
+                skipTable[5 * b + 3] = occurrenceBytes.length;
+                skipTable[5 * b + 4] = maxTf;
+                lastDocId = docIds[to - 1];
+                blocks.write(docBytes);
+                blocks.write(tfBytes);
+                occurrenceBlocks.write(occurrenceBytes);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    blocks.size() + occurrenceBlocks.size() + 10 * numBlocks + 8);
+            out.write(Compressor.convertToVBytes(new int[]{docIds.length, numBlocks}));
+            out.write(Compressor.convertToVBytes(skipTable, skipTable.length));
+            blocks.writeTo(out);
+            occurrenceBlocks.writeTo(out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            // Should never happen, we only write to memory.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Number of documents in this list, including deleted ones.
+     */
+    public int size() {
+        return numDocs;
+    }
+
+    /**
+     * Largest number of occurrences of the token in a document of this list,
+     * from the skip table.
+     */
+    public int maxTermFrequency() {
+        int maxTf = 0;
+        for (int b = 0; b < numBlocks; b++) maxTf = Math.max(maxTf, blockMaxTfs[b]);
+        return maxTf;
+    }
+
+    /**
+     * Bytes of compressed postings held by this list.
+     */
+    public long bytesUsed() {
+        long bytes = 0;
+        for (int b = 0; b < numBlocks; b++) {
+            if (b == 0 || blockBytes[b] != blockBytes[b - 1]) bytes += blockBytes[b].length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Number of documents in block {@code b}.
+     */
+    int blockSize(int b) {
+        return blockSizes[b];
+    }
+
+    /**
+     * A new cursor positioned before the first document of this list. Cursors
+     * are cheap, not thread-safe, and many may be open on the same list.
+     */
+    public PostingsCursor cursor() {
+        return new PostingsCursor(this);
+    }
+}
@@ -0,0 +1,110 @@
+package edu.nyu.cs.cs2580.index;
+
+import edu.nyu.cs.cs2580.helper.PostingsCodec;
+
+import java.util.Arrays;
+
+/**
+ * A growable, uncompressed posting list made of parallel int arrays.
+ * <p/>
+ * Used while inverting documents and to collect the matches of phrase queries.
+ * Occurrences are added one at a time, and all occurrences of a document must
+ * be added together. A posting costs 4 bytes per occurrence and 8 bytes per
+ * document, where a TreeMap<Long, ArrayList<Long>> costs a boxed Long per
+ * occurrence plus a tree node, a boxed key and an ArrayList per document.
+ */
+public class PostingsBuffer {
+
+    private int[] docIds = new int[1];
+    // occurrenceStarts[i] is where the occurrences of docIds[i] start.
+    private int[] occurrenceStarts = new int[2];
+    private int[] occurrences = new int[1];
+    private int numDocs = 0;
+    private int numOccurrences = 0;
+    private boolean sorted = true;
+
+    /**
+     * Record that the token occurs in {@code docId} at {@code occurrence}.
+     */
+    public void add(int docId, int occurrence) {
+        if (numDocs == 0 || docIds[numDocs - 1] != docId) {
+            if (numDocs == docIds.length) {
+                docIds = Arrays.copyOf(docIds, 2 * numDocs);
+                occurrenceStarts = Arrays.copyOf(occurrenceStarts, 2 * numDocs + 1);
+            }
+            if (numDocs > 0 && docIds[numDocs - 1] > docId) sorted = false;
+            docIds[numDocs++] = docId;
+        }
+        if (numOccurrences == occurrences.length) {
+            occurrences = Arrays.copyOf(occurrences, 2 * numOccurrences);
+        }
+        occurrences[numOccurrences++] = occurrence;
+        occurrenceStarts[numDocs] = numOccurrences;
+    }
+
+    /**
+     * Number of documents.
+     */
+    public int size() {
+        return numDocs;
+    }
+
+    public int getDocId(int i) {
+        return docIds[i];
+    }
+
+    public int getTermFrequency(int i) {
+        return occurrenceStarts[i + 1] - occurrenceStarts[i];
+    }
+
+    public int getOccurrence(int i, int j) {
+        return occurrences[occurrenceStarts[i] + j];
+    }
+
+    /**
+     * Bytes held by the arrays of this buffer, including unused capacity.
+     */
+    public long bytesUsed() {
+        return 4L * (docIds.length + occurrenceStarts.length + occurrences.length);
+    }
+
+    /**
+     * Compress into the final index format.
+     */
+    public byte[] encode(PostingsCodec codec) {
+        sortByDocId();
+        int[] termFrequencies = new int[numDocs];
+        for (int i = 0; i < numDocs; i++) termFrequencies[i] = getTermFrequency(i);
+        return PostingList.encode(Arrays.copyOf(docIds, numDocs), termFrequencies,
+                Arrays.copyOf(occurrences, numOccurrences), codec);
+    }
+
+    /**
+     * Documents are usually added in doc id order. If they weren't, reorder them
+     * along with their occurrences.
+     */
+    public void sortByDocId() {
+        if (sorted) return;
+        long[] order = new long[numDocs];
+        for (int i = 0; i < numDocs; i++) order[i] = ((long) docIds[i] << 32) | i;
+        Arrays.sort(order);
+
+        int[] newDocIds = new int[docIds.length];
+        int[] newStarts = new int[occurrenceStarts.length];
+        int[] newOccurrences = new int[occurrences.length];
+        int occ = 0;
+        for (int i = 0; i < numDocs; i++) {
+            int old = (int) order[i];
+            int tf = getTermFrequency(old);
+            newDocIds[i] = docIds[old];
+            newStarts[i] = occ;
+            System.arraycopy(occurrences, occurrenceStarts[old], newOccurrences, occ, tf);
+            occ += tf;
+        }
+        newStarts[numDocs] = occ;
+        docIds = newDocIds;
+        occurrenceStarts = newStarts;
+        occurrences = newOccurrences;
+        sorted = true;
+    }
+}
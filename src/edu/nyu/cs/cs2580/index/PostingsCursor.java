@@ -0,0 +1,244 @@
+package edu.nyu.cs.cs2580.index;
+
+import edu.nyu.cs.cs2580.helper.PostingsCodec;
+
+import java.util.Arrays;
+
+/**
+ * Walks the documents of a {@link PostingList} in increasing doc id order.
+ * <p/>
+ * Only the block holding the current document is decoded. advance(int) uses
+ * the skip table of the list to jump over every block whose last doc id is
+ * smaller than the target, without decoding them. Both the skip table and
+ * the decoded block are searched by galloping: probing 1, 2, 4... entries
+ * ahead, then a binary search, so a jump costs the log of its length.
+ * Occurrences are only decoded when occurrences() is called, and only for the
+ * current document if the codec can skip over the occurrences of the
+ * documents before it (VByte). Otherwise the occurrences of the whole block
+ * are decoded at once. Deleted documents are skipped with one bit test each.
+ */
+public class PostingsCursor {
+
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    private final PostingList list;
+    private int block = -1;
+    private int index = -1;
+    private int docId = -1;
+
+    // Decoded doc ids and frequencies of the current block.
+    private int blockSize = 0;
+    // Documents deleted from the current block, null if there are none.
+    private LiveDocs liveDocs = null;
+    private final int[] docIds = new int[PostingList.BLOCK_SIZE];
+    private final int[] termFrequencies = new int[PostingList.BLOCK_SIZE];
+    // Decoded occurrences of the current block, valid if occurrencesDecoded.
+    private boolean occurrencesDecoded = false;
+    private int[] occurrences = new int[PostingList.BLOCK_SIZE];
+    private final int[] occurrenceStarts = new int[PostingList.BLOCK_SIZE + 1];
+    // Decoded occurrences of the document at occurrencesIndex, when decoding
+    // one document at a time. The occurrences of the document at
+    // nextOccurrencesIndex start at nextOccurrencesOffset.
+    private int occurrencesIndex = -1;
+    private int[] docOccurrences = new int[16];
+    private int nextOccurrencesIndex = 0;
+    private int nextOccurrencesOffset = 0;
+    // Block found by the last shallowAdvance(int).
+    private int shallowBlock = 0;
+
+    PostingsCursor(PostingList list) {
+        this.list = list;
+    }
+
+    /**
+     * @return the current doc id, -1 before the first call to nextDoc() or
+     * advance(int), and NO_MORE_DOCS once the list is exhausted.
+     */
+    public int docId() {
+        return docId;
+    }
+
+    /**
+     * Number of occurrences of the token in the current document.
+     */
+    public int termFrequency() {
+        return termFrequencies[index];
+    }
+
+    /**
+     * Sorted occurrences of the token in the current document.
+     */
+    public int[] occurrences() {
+        if (!occurrencesDecoded && index != occurrencesIndex) decodeDocOccurrences();
+        if (occurrencesDecoded) {
+            return Arrays.copyOfRange(occurrences, occurrenceStarts[index], occurrenceStarts[index + 1]);
+        }
+        return Arrays.copyOf(docOccurrences, termFrequencies[index]);
+    }
+
+    /**
+     * Move to the next document.
+     *
+     * @return its doc id or NO_MORE_DOCS.
+     */
+    public int nextDoc() {
+        if (docId == NO_MORE_DOCS) return docId;
+        do {
+            if (block >= 0 && index + 1 < blockSize) {
+                docId = docIds[++index];
+            } else if (block + 1 >= list.numBlocks) {
+                return docId = NO_MORE_DOCS;
+            } else {
+                loadBlock(block + 1);
+                docId = docIds[index = 0];
+            }
+        } while (liveDocs != null && !liveDocs.isLive(docId));
+        return docId;
+    }
+
+    /**
+     * Move to the first document with a doc id of at least {@code target}.
+     * Never moves backwards.
+     *
+     * @return its doc id or NO_MORE_DOCS.
+     */
+    public int advance(int target) {
+        if (docId >= target) return docId;
+        int b = Math.max(block, 0);
+        if (b < list.numBlocks && list.lastDocIds[b] < target) {
+            b = gallop(list.lastDocIds, b + 1, list.numBlocks, target);
+        }
+        if (b >= list.numBlocks) return docId = NO_MORE_DOCS;
+        if (b != block) {
+            loadBlock(b);
+            index = 0;
+        }
+        index = gallop(docIds, index, blockSize, target);
+        docId = docIds[index];
+        if (liveDocs != null && !liveDocs.isLive(docId)) return nextDoc();
+        return docId;
+    }
+
+    /**
+     * First index in [from, to) of the sorted {@code values} holding at least
+     * {@code target}, or {@code to} if there is none.
+     */
+    static int gallop(int[] values, int from, int to, int target) {
+        // values[low - 1] < target, the first candidate is within [low, high].
+        int low = from, high = from;
+        for (int step = 1; high < to && values[high] < target; step <<= 1) {
+            low = high + 1;
+            high += step;
+        }
+        high = Math.min(high, to);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < target) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Find the block which would hold {@code target} in the skip table,
+     * without decoding it or moving the cursor. The target should not be
+     * before the current document.
+     *
+     * @return the last doc id of that block, or NO_MORE_DOCS if there is no
+     * document of at least {@code target}.
+     */
+    public int shallowAdvance(int target) {
+        int b = Math.max(block, 0);
+        if (shallowBlock > b && list.lastDocIds[shallowBlock - 1] < target) b = shallowBlock;
+        if (b < list.numBlocks && list.lastDocIds[b] < target) {
+            b = gallop(list.lastDocIds, b + 1, list.numBlocks, target);
+        }
+        shallowBlock = b;
+        return b < list.numBlocks ? list.lastDocIds[b] : NO_MORE_DOCS;
+    }
+
+    /**
+     * Largest number of occurrences in the block found by the last
+     * shallowAdvance(int), 0 if it found none.
+     */
+    public int blockMaxTermFrequency() {
+        return shallowBlock < list.numBlocks ? list.blockMaxTfs[shallowBlock] : 0;
+    }
+
+    /**
+     * Largest number of occurrences in the whole list.
+     */
+    public int maxTermFrequency() {
+        return list.maxTermFrequency();
+    }
+
+    /**
+     * Number of documents of the list, deleted ones included. The rarest
+     * token of a query is the cheapest to lead an intersection with.
+     */
+    public int docFrequency() {
+        return list.size();
+    }
+
+    private void loadBlock(int b) {
+        block = b;
+        blockSize = list.blockSize(b);
+        liveDocs = list.blockLiveDocs[b];
+        list.blockCodecs[b].decode(list.blockBytes[b], list.docStarts[b], docIds, blockSize);
+        list.blockCodecs[b].decode(list.blockBytes[b], list.tfStarts[b], termFrequencies, blockSize);
+        int base = list.docBases[b];
+        for (int i = 0; i < blockSize; i++) {
+            base += docIds[i];
+            docIds[i] = base;
+        }
+        occurrencesDecoded = false;
+        occurrencesIndex = -1;
+        nextOccurrencesIndex = 0;
+        nextOccurrencesOffset = list.occurrenceStarts[b];
+    }
+
+    /**
+     * Decode the occurrences of the current document only, skipping over those
+     * of the documents since the last one decoded. Falls back to decoding the
+     * whole block if the codec can't skip.
+     */
+    private void decodeDocOccurrences() {
+        PostingsCodec codec = list.blockCodecs[block];
+        byte[] bytes = list.blockBytes[block];
+        int skipped = 0;
+        for (int i = nextOccurrencesIndex; i < index; i++) skipped += termFrequencies[i];
+        int offset = codec.skip(bytes, nextOccurrencesOffset, skipped);
+        if (offset < 0) {
+            decodeOccurrences();
+            return;
+        }
+        int tf = termFrequencies[index];
+        if (docOccurrences.length < tf) docOccurrences = new int[Math.max(tf, 2 * docOccurrences.length)];
+        nextOccurrencesOffset = codec.decode(bytes, offset, docOccurrences, tf);
+        nextOccurrencesIndex = index + 1;
+        occurrencesIndex = index;
+        int base = 0;
+        for (int j = 0; j < tf; j++) {
+            base += docOccurrences[j];
+            docOccurrences[j] = base;
+        }
+    }
+
+    private void decodeOccurrences() {
+        int numOccurrences = 0;
+        for (int i = 0; i < blockSize; i++) numOccurrences += termFrequencies[i];
+        if (occurrences.length < numOccurrences) occurrences = new int[numOccurrences];
+        list.blockCodecs[block].decode(list.blockBytes[block], list.occurrenceStarts[block], occurrences, numOccurrences);
+        int occ = 0;
+        for (int i = 0; i < blockSize; i++) {
+            occurrenceStarts[i] = occ;
+            int base = 0;
+            for (int j = 0; j < termFrequencies[i]; j++) {
+                base += occurrences[occ];
+                occurrences[occ++] = base;
+            }
+        }
+        occurrenceStarts[blockSize] = occ;
+        occurrencesDecoded = true;
+    }
+}
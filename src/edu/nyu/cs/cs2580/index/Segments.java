@@ -0,0 +1,704 @@
+package edu.nyu.cs.cs2580.index;
+
+import edu.nyu.cs.cs2580.SearchEngine;
+import edu.nyu.cs.cs2580.helper.PageRanks;
+import edu.nyu.cs.cs2580.models.DocumentIndexed;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The index is a list of immutable segments, each in its own directory under
+ * index_prefix with its lexicon, final index files and {@link DocumentStore}.
+ * Segments hold increasing, disjoint ranges of doc ids, so the posting list of
+ * a token is the concatenation of its lists in every segment.
+ * <p/>
+ * The segments making up the index are listed in order in the manifest, one
+ * per line, after its generation:
+ * <pre>
+ *   generation number
+ *   name firstDocId lastDocId numDocs
+ * </pre>
+ * The manifest is only ever replaced as a whole, by renaming a new one over
+ * it, so a reader always sees a complete list of segments. Every new manifest
+ * has the next generation, which tells a server it changed.
+ * <p/>
+ * Updating the index writes a new segment with the added and changed files
+ * of the corpus. Segments of the same size, by powers of segment_merge_factor
+ * documents, are then merged segment_merge_factor at a time in the
+ * background, so the number of segments stays logarithmic in the size of the
+ * corpus.
+ * <p/>
+ * Documents are deleted from a segment by marking them in its {@link LiveDocs},
+ * which takes no more than rewriting a bitset. Deleted documents are hidden
+ * from posting lists and document lookups right away, and dropped for good
+ * when their segment is merged. A segment with at least half of its documents
+ * deleted is rewritten on its own. Term statistics from the lexicons still
+ * count deleted documents until then.
+ * <p/>
+ * A server keeps serving while the index is updated: an instance of this
+ * class is an immutable snapshot of the segments, and {@link #reopen} gives
+ * a new one once the generation of the manifest changed, sharing the files
+ * of the segments left as they were. Deleting documents writes a new
+ * generation of the manifest as well. Every query holds the snapshot it
+ * started with, see {@link #acquire()}. Merges never delete the directories
+ * of the segments they replace: the server does, once no query holds them
+ * any more, and so does the next server to start.
+ */
+public class Segments {
+
+    public static final String MANIFEST = "/segments.manifest";
+    public static final String SEGMENT_PREFIX = "segment_";
+    private static final String GENERATION = "generation ";
+
+    /**
+     * One line of the manifest.
+     */
+    public static class Info {
+        public final String name;
+        public final int firstDocId;
+        public final int lastDocId;
+        public final int numDocs;
+
+        public Info(String name, int firstDocId, int lastDocId, int numDocs) {
+            this.name = name;
+            this.firstDocId = firstDocId;
+            this.lastDocId = lastDocId;
+            this.numDocs = numDocs;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + firstDocId + " " + lastDocId + " " + numDocs;
+        }
+    }
+
+    public static String directory(SearchEngine.Options options, String name) {
+        return options._indexPrefix + "/" + name;
+    }
+
+    public static List<Info> readManifest(SearchEngine.Options options) throws IOException {
+        List<Info> infos = new ArrayList<Info>();
+        File manifest = new File(options._indexPrefix + MANIFEST);
+        if (!manifest.exists()) return infos;
+        BufferedReader reader = new BufferedReader(new FileReader(manifest));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.startsWith(GENERATION)) continue;
+                String[] fields = line.trim().split(" ");
+                infos.add(new Info(fields[0], Integer.parseInt(fields[1]),
+                        Integer.parseInt(fields[2]), Integer.parseInt(fields[3])));
+            }
+        } finally {
+            reader.close();
+        }
+        return infos;
+    }
+
+    /**
+     * Generation of the manifest, 0 if there is none.
+     */
+    public static long readGeneration(SearchEngine.Options options) throws IOException {
+        File manifest = new File(options._indexPrefix + MANIFEST);
+        if (!manifest.exists()) return 0;
+        BufferedReader reader = new BufferedReader(new FileReader(manifest));
+        try {
+            String line = reader.readLine();
+            return line != null && line.startsWith(GENERATION) ? Long.parseLong(line.substring(GENERATION.length())) : 0;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Replace the manifest with {@code infos}, as the next generation.
+     */
+    public static void writeManifest(SearchEngine.Options options, List<Info> infos) throws IOException {
+        File manifest = new File(options._indexPrefix + MANIFEST);
+        File temp = new File(options._indexPrefix + MANIFEST + ".tmp");
+        long generation = readGeneration(options) + 1;
+        PrintWriter writer = new PrintWriter(new FileWriter(temp));
+        writer.println(GENERATION + generation);
+        for (Info info : infos) writer.println(info);
+        writer.close();
+        if (!temp.renameTo(manifest)) {
+            // Not every file system renames over an existing file.
+            manifest.delete();
+            if (!temp.renameTo(manifest)) throw new IOException("Could not replace " + manifest);
+        }
+    }
+
+    /**
+     * Name for a new segment, after every segment in {@code infos} and every
+     * segment directory still on disk, which a server may be reading.
+     */
+    public static String nextName(SearchEngine.Options options, List<Info> infos) {
+        int next = 0;
+        for (Info info : infos) next = Math.max(next, number(info.name) + 1);
+        for (String name : directoryNames(options)) next = Math.max(next, number(name) + 1);
+        return SEGMENT_PREFIX + next;
+    }
+
+    private static int number(String name) {
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length()));
+    }
+
+    private static List<String> directoryNames(SearchEngine.Options options) {
+        List<String> names = new ArrayList<String>();
+        File[] files = new File(options._indexPrefix).listFiles();
+        if (files == null) return names;
+        for (File f : files) {
+            if (f.isDirectory() && f.getName().matches(SEGMENT_PREFIX + "\\d+")) names.add(f.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Delete the directories of the segments which were merged away, left out
+     * of the manifest. Those after the last segment of the manifest are left
+     * alone: an update may be writing one of them.
+     */
+    static void deleteUnlistedDirectories(SearchEngine.Options options, List<Info> infos) {
+        Set<String> listed = new HashSet<String>();
+        int last = -1;
+        for (Info info : infos) {
+            listed.add(info.name);
+            last = Math.max(last, number(info.name));
+        }
+        for (String name : directoryNames(options)) {
+            if (listed.contains(name) || number(name) > last) continue;
+            delete(new File(directory(options, name)));
+            System.out.println("Deleted the merged segment " + name);
+        }
+    }
+
+    /**
+     * An empty directory for the segment {@code name}.
+     */
+    public static String createDirectory(SearchEngine.Options options, String name) {
+        File directory = new File(directory(options, name));
+        delete(directory);
+        directory.mkdirs();
+        return directory.getPath();
+    }
+
+    static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * A segment loaded for serving.
+     */
+    private static class Segment {
+        final Info info;
+        final IndexOrganizer organizer;
+        final DocumentStore documents;
+        // Null if no document of the segment is deleted.
+        final LiveDocs liveDocs;
+        // Null if the segment was written without a forward index.
+        final ForwardIndex forward;
+        // Snapshots holding the files of the segment, shared with the copies
+        // of the segment with newer deleted documents.
+        final AtomicInteger references;
+        // Set once the segment is out of the manifest: the last snapshot
+        // holding it deletes its directory.
+        final AtomicBoolean retired;
+
+        Segment(SearchEngine.Options options, Info info) throws IOException {
+            this.info = info;
+            organizer = new IndexOrganizer(options, directory(options, info.name));
+            organizer.loadIndex();
+            documents = DocumentStore.open(new File(directory(options, info.name) + Indexer.DOCUMENT_STORE));
+            LiveDocs liveDocs = LiveDocs.read(directory(options, info.name), info);
+            this.liveDocs = liveDocs.numDeleted() > 0 ? liveDocs : null;
+            File forwardFile = new File(directory(options, info.name) + ForwardIndex.FILENAME);
+            forward = forwardFile.exists() ? ForwardIndex.open(forwardFile) : null;
+            references = new AtomicInteger(0);
+            retired = new AtomicBoolean(false);
+        }
+
+        /**
+         * The same segment with more deleted documents.
+         */
+        Segment(Segment segment, LiveDocs liveDocs) {
+            info = segment.info;
+            organizer = segment.organizer;
+            documents = segment.documents;
+            this.liveDocs = liveDocs;
+            forward = segment.forward;
+            references = segment.references;
+            retired = segment.retired;
+        }
+
+        int numDeleted() {
+            return liveDocs == null ? 0 : liveDocs.numDeleted();
+        }
+
+        boolean isLive(int docId) {
+            return documents.contains(docId) && (liveDocs == null || liveDocs.isLive(docId));
+        }
+    }
+
+    private static final AtomicLong nextVersion = new AtomicLong(0);
+
+    private final Segment[] segments;
+    private final int numDocs;
+    private final long totalTermFrequency;
+    // Generation of the manifest read.
+    private final long generation;
+    // Tells snapshots apart, for caches of query results.
+    private final long version = nextVersion.incrementAndGet();
+    // Posting lists over all segments, built while serving, least recently
+    // used first. Guarded by itself.
+    private final LinkedHashMap<String, PostingList> postingsCache =
+            new LinkedHashMap<String, PostingList>(16, .75f, true);
+    // Bytes of the lists in postingsCache, kept under postingsCacheBudget.
+    private long postingsCacheBytes = 0;
+    private final long postingsCacheBudget;
+
+    private Segments(SearchEngine.Options options, Segment[] segments, long generation) {
+        this.segments = segments;
+        this.generation = generation;
+        postingsCacheBudget = options._postings_cache_budget;
+        int numDocs = 0;
+        long totalTermFrequency = 0;
+        for (Segment segment : segments) {
+            numDocs += segment.documents.numDocs();
+            totalTermFrequency += segment.documents.totalTermFrequency();
+            if (segment.liveDocs == null) continue;
+            for (int docId : segment.liveDocs.deletedDocIds()) {
+                if (!segment.documents.contains(docId)) continue;
+                numDocs--;
+                totalTermFrequency -= segment.documents.length(docId);
+            }
+        }
+        this.numDocs = numDocs;
+        this.totalTermFrequency = totalTermFrequency;
+    }
+
+    /**
+     * Load every segment listed in the manifest, once the directories of the
+     * segments merged away since the last server ran are deleted.
+     */
+    public static Segments open(SearchEngine.Options options) throws IOException {
+        // Read first: a manifest replaced in between is only read again.
+        long generation = readGeneration(options);
+        List<Info> infos = readManifest(options);
+        if (infos.isEmpty()) throw new IOException("No index segments in " + options._indexPrefix + MANIFEST);
+        deleteUnlistedDirectories(options, infos);
+        Segment[] segments = new Segment[infos.size()];
+        for (int i = 0; i < segments.length; i++) segments[i] = new Segment(options, infos.get(i));
+        System.out.println("Loaded " + segments.length + " index segments.");
+        return new Segments(options, segments, generation);
+    }
+
+    /**
+     * Whether a new manifest was written since this snapshot was read.
+     */
+    public boolean isStale(SearchEngine.Options options) throws IOException {
+        return readGeneration(options) != generation;
+    }
+
+    /**
+     * A snapshot of the index as it is now. The segments still in the
+     * manifest are shared with this one, and only their deleted documents
+     * are read again: documents are never undeleted, so a segment with more
+     * of them gets the new ones. The segments left out of the manifest
+     * are retired: their directories are deleted once released by every
+     * snapshot holding them.
+     */
+    public Segments reopen(SearchEngine.Options options) throws IOException {
+        // Read first: a manifest replaced in between is only read again.
+        long generation = readGeneration(options);
+        List<Info> infos = readManifest(options);
+        if (infos.isEmpty()) throw new IOException("No index segments in " + options._indexPrefix + MANIFEST);
+        Map<String, Segment> current = new HashMap<String, Segment>();
+        for (Segment segment : this.segments) current.put(segment.info.name, segment);
+        Segment[] segments = new Segment[infos.size()];
+        for (int i = 0; i < segments.length; i++) {
+            Segment segment = current.remove(infos.get(i).name);
+            if (segment == null) {
+                segments[i] = new Segment(options, infos.get(i));
+                continue;
+            }
+            LiveDocs liveDocs = LiveDocs.read(directory(options, segment.info.name), segment.info);
+            segments[i] = liveDocs.numDeleted() > segment.numDeleted() ? new Segment(segment, liveDocs) : segment;
+        }
+        for (Segment segment : current.values()) segment.retired.set(true);
+        System.out.println("Reloaded " + segments.length + " index segments.");
+        return new Segments(options, segments, generation);
+    }
+
+    /**
+     * Hold the files of every segment of this snapshot until release().
+     */
+    public void acquire() {
+        for (Segment segment : segments) segment.references.incrementAndGet();
+    }
+
+    /**
+     * Let go of the files held by acquire(), deleting the directories of the
+     * retired segments no snapshot holds any more.
+     */
+    public void release(SearchEngine.Options options) {
+        for (Segment segment : segments) {
+            if (segment.references.decrementAndGet() == 0 && segment.retired.get()) {
+                delete(new File(directory(options, segment.info.name)));
+                System.out.println("Deleted the merged segment " + segment.info.name);
+            }
+        }
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public int numDocs() {
+        return numDocs;
+    }
+
+    public long totalTermFrequency() {
+        return totalTermFrequency;
+    }
+
+    public int docFrequency(String term) {
+        int docFrequency = 0;
+        for (Segment segment : segments) {
+            Lexicon.Entry entry = segment.organizer.getLexiconEntry(term);
+            if (entry != null) docFrequency += entry.docFrequency;
+        }
+        return docFrequency;
+    }
+
+    public long corpusFrequency(String term) {
+        long corpusFrequency = 0;
+        for (Segment segment : segments) {
+            Lexicon.Entry entry = segment.organizer.getLexiconEntry(term);
+            if (entry != null) corpusFrequency += entry.corpusFrequency;
+        }
+        return corpusFrequency;
+    }
+
+    public int maxTermFrequency(String term) {
+        int maxTermFrequency = 0;
+        for (Segment segment : segments) {
+            Lexicon.Entry entry = segment.organizer.getLexiconEntry(term);
+            if (entry != null) maxTermFrequency = Math.max(maxTermFrequency, entry.maxTermFrequency);
+        }
+        return maxTermFrequency;
+    }
+
+    /**
+     * The posting list of {@code token} over all segments.
+     *
+     * @return null if the token isn't in any segment.
+     */
+    public PostingList getPostings(String token) {
+        synchronized (postingsCache) {
+            PostingList cached = postingsCache.get(token);
+            if (cached != null) return cached;
+        }
+        List<PostingList> lists = new ArrayList<PostingList>(segments.length);
+        for (Segment segment : segments) {
+            byte[] bytes = segment.organizer.loadIndexFor(token);
+            if (bytes != null) lists.add(new PostingList(bytes, segment.organizer.getCodec(), segment.liveDocs));
+        }
+        if (lists.isEmpty()) return null;
+        PostingList postings = PostingList.concat(lists);
+        cache(token, postings);
+        return postings;
+    }
+
+    /**
+     * Add {@code postings} to the postings cache, dropping the least recently
+     * used lists until the cache fits postings_cache_budget again. A list
+     * larger than the whole budget is still kept, on its own.
+     */
+    private void cache(String token, PostingList postings) {
+        synchronized (postingsCache) {
+            PostingList previous = postingsCache.put(token, postings);
+            if (previous != null) postingsCacheBytes -= previous.bytesUsed();
+            postingsCacheBytes += postings.bytesUsed();
+            Iterator<PostingList> eldest = postingsCache.values().iterator();
+            while (postingsCacheBytes > postingsCacheBudget && eldest.hasNext()) {
+                PostingList list = eldest.next();
+                if (list == postings) continue;
+                postingsCacheBytes -= list.bytesUsed();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * The impact ordered list of {@code token} over all segments.
+     *
+     * @return null if the token isn't in any segment, or a segment holding it
+     * was written without impact ordered lists.
+     */
+    public ImpactCursor getImpacts(String token, PageRanks pageRanks) {
+        List<ByteBuffer> lists = new ArrayList<ByteBuffer>(segments.length);
+        List<LiveDocs> liveDocs = new ArrayList<LiveDocs>(segments.length);
+        for (Segment segment : segments) {
+            Lexicon.Entry entry = segment.organizer.getLexiconEntry(token);
+            if (entry == null) continue;
+            ByteBuffer impacts = segment.organizer.impactsFor(entry);
+            if (impacts == null) return null;
+            lists.add(impacts);
+            liveDocs.add(segment.liveDocs);
+        }
+        return lists.isEmpty() ? null : new ImpactCursor(lists, liveDocs, pageRanks);
+    }
+
+    /**
+     * @return null if no segment has this doc id, or it was deleted.
+     */
+    public DocumentIndexed getDocument(int docId) {
+        DocumentStore documents = documentsOf(docId);
+        return documents == null ? null : documents.getDocument(docId);
+    }
+
+    public String url(int docId) {
+        DocumentStore documents = documentsOf(docId);
+        return documents == null ? null : documents.url(docId);
+    }
+
+    /**
+     * The terms of {@code docId} and their frequencies, see {@link ForwardIndex}.
+     *
+     * @return null if no segment has this doc id, it was deleted, or its
+     * segment has no forward index.
+     */
+    public Map<String, Integer> termVector(int docId) {
+        Segment segment = segmentOf(docId);
+        if (segment == null || segment.forward == null) return null;
+        return segment.forward.termVector(docId, segment.organizer.getLexicon());
+    }
+
+    private DocumentStore documentsOf(int docId) {
+        Segment segment = segmentOf(docId);
+        return segment == null ? null : segment.documents;
+    }
+
+    private Segment segmentOf(int docId) {
+        for (Segment segment : segments) {
+            if (segment.isLive(docId)) return segment;
+        }
+        return null;
+    }
+
+    /**
+     * Mark documents as deleted in the segments of the manifest holding them,
+     * then write the next generation of the manifest for servers to see them.
+     * Doc ids which aren't in any segment are ignored.
+     *
+     * @return the number of documents deleted.
+     */
+    public static int deleteDocuments(SearchEngine.Options options, Collection<Integer> docIds) throws IOException {
+        int numDeleted = 0;
+        List<Info> infos = readManifest(options);
+        for (Info info : infos) {
+            LiveDocs liveDocs = null;
+            for (int docId : docIds) {
+                if (docId < info.firstDocId || docId > info.lastDocId) continue;
+                if (liveDocs == null) liveDocs = LiveDocs.read(directory(options, info.name), info);
+                if (liveDocs.delete(docId)) numDeleted++;
+            }
+            if (liveDocs != null) liveDocs.write(directory(options, info.name));
+        }
+        if (numDeleted > 0) writeManifest(options, infos);
+        return numDeleted;
+    }
+
+    public boolean removeFromCache(String token) {
+        boolean removed = false;
+        synchronized (postingsCache) {
+            PostingList postings = postingsCache.remove(token);
+            if (postings != null) {
+                postingsCacheBytes -= postings.bytesUsed();
+                removed = true;
+            }
+        }
+        for (Segment segment : segments) removed |= segment.organizer.removeFromCache(token);
+        return removed;
+    }
+
+    /**
+     * Write the spell checker dictionary and the query completion files from
+     * the terms of every segment of the manifest.
+     */
+    public static void writeTermLookups(final SearchEngine.Options options) throws IOException {
+        final List<Info> infos = readManifest(options);
+        final List<Lexicon> lexicons = new ArrayList<Lexicon>();
+        for (Info info : infos) lexicons.add(Lexicon.open(new File(directory(options, info.name) + IndexOrganizer.LEXICON)));
+        // Smallest term first; the position in a lexicon is in the low bits.
+        final PriorityQueue<int[]> heap = new PriorityQueue<int[]>(Math.max(lexicons.size(), 1), new Comparator<int[]>() {
+            @Override
+            public int compare(int[] p1, int[] p2) {
+                return lexicons.get(p1[0]).getTerm(p1[1]).compareTo(lexicons.get(p2[0]).getTerm(p2[1]));
+            }
+        });
+        for (int i = 0; i < lexicons.size(); i++) {
+            if (lexicons.get(i).size() > 0) heap.add(new int[]{i, 0});
+        }
+        IndexOrganizer.writeTermLookups(new Iterator<String>() {
+            private String previous = null;
+
+            @Override
+            public boolean hasNext() {
+                skipRepeats();
+                return !heap.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                skipRepeats();
+                previous = pop();
+                return previous;
+            }
+
+            private void skipRepeats() {
+                while (!heap.isEmpty() && previous != null && peek().equals(previous)) pop();
+            }
+
+            private String peek() {
+                int[] position = heap.peek();
+                return lexicons.get(position[0]).getTerm(position[1]);
+            }
+
+            private String pop() {
+                int[] position = heap.poll();
+                String term = lexicons.get(position[0]).getTerm(position[1]);
+                if (++position[1] < lexicons.get(position[0]).size()) heap.add(position);
+                return term;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    /**
+     * Size class of a segment: segments with fewer than factor^(level + 1)
+     * documents are merged together.
+     */
+    private static int level(Info info, int factor) {
+        int level = 0;
+        for (long size = factor; size <= info.numDocs; size *= factor) level++;
+        return level;
+    }
+
+    /**
+     * The next segments to merge: the first {@code factor} adjacent segments of
+     * the lowest level which has that many in a row, or else the first segment
+     * with at least half of its documents deleted.
+     *
+     * @param numDeleted number of deleted documents of every segment.
+     * @return the index of the first segment to merge and the number of
+     * segments, or null if nothing needs merging.
+     */
+    static int[] findMerge(List<Info> infos, int[] numDeleted, int factor) {
+        int best = -1, bestLevel = Integer.MAX_VALUE;
+        for (int i = 0; i + factor <= infos.size(); i++) {
+            int level = level(infos.get(i), factor);
+            boolean same = true;
+            for (int j = i + 1; same && j < i + factor; j++) same = level(infos.get(j), factor) == level;
+            if (same && level < bestLevel) {
+                best = i;
+                bestLevel = level;
+            }
+        }
+        if (best >= 0) return new int[]{best, factor};
+        for (int i = 0; i < infos.size(); i++) {
+            if (numDeleted[i] > 0 && 2 * numDeleted[i] >= infos.get(i).numDocs) return new int[]{i, 1};
+        }
+        return null;
+    }
+
+    /**
+     * Merge segments until none need merging. Each merge writes a new segment
+     * from the live documents of the old ones and replaces them with it in the
+     * manifest. Segments left without any live document are just dropped. The
+     * directories of the old segments are left for the server to delete, see
+     * {@link #release(SearchEngine.Options)}.
+     */
+    public static void mergeSegments(SearchEngine.Options options) throws IOException {
+        int factor = options._segment_merge_factor;
+        List<Info> infos;
+        int[] merge;
+        while ((merge = findMerge(infos = readManifest(options), numDeleted(options, infos), factor)) != null) {
+            long start = System.currentTimeMillis();
+            int first = merge[0], count = merge[1];
+            List<Info> merged = new ArrayList<Info>(infos.subList(first, first + count));
+            String name = nextName(options, infos);
+            String directory = createDirectory(options, name);
+
+            List<IndexOrganizer> organizers = new ArrayList<IndexOrganizer>();
+            List<LiveDocs> liveDocs = new ArrayList<LiveDocs>();
+            Map<Long, DocumentIndexed> documents = new HashMap<Long, DocumentIndexed>();
+            for (Info info : merged) {
+                IndexOrganizer organizer = new IndexOrganizer(options, directory(options, info.name));
+                organizer.loadIndex();
+                organizers.add(organizer);
+                LiveDocs live = LiveDocs.read(directory(options, info.name), info);
+                liveDocs.add(live);
+                DocumentStore store = DocumentStore.open(new File(directory(options, info.name) + Indexer.DOCUMENT_STORE));
+                for (int docId = store.firstDocId(); docId <= store.lastDocId(); docId++) {
+                    if (store.contains(docId) && live.isLive(docId)) documents.put((long) docId, store.getDocument(docId));
+                }
+            }
+
+            List<Info> updated = new ArrayList<Info>(infos.subList(0, first));
+            if (documents.isEmpty()) {
+                delete(new File(directory));
+            } else {
+                new IndexOrganizer(options, directory).mergeSegments(organizers, liveDocs);
+                DocumentStore.write(new File(directory + Indexer.DOCUMENT_STORE), documents);
+                updated.add(new Info(name, merged.get(0).firstDocId, merged.get(count - 1).lastDocId, documents.size()));
+            }
+            updated.addAll(infos.subList(first + count, infos.size()));
+            writeManifest(options, updated);
+            System.out.println("Merged " + count + " segments into " + (documents.isEmpty() ? "nothing" : name)
+                    + " in " + (System.currentTimeMillis() - start) / 1000.0 + " seconds.");
+        }
+    }
+
+    private static int[] numDeleted(SearchEngine.Options options, List<Info> infos) throws IOException {
+        int[] numDeleted = new int[infos.size()];
+        for (int i = 0; i < numDeleted.length; i++) {
+            numDeleted[i] = LiveDocs.read(directory(options, infos.get(i).name), infos.get(i)).numDeleted();
+        }
+        return numDeleted;
+    }
+
+    /**
+     * Run {@link #mergeSegments(SearchEngine.Options)} in a new daemon thread.
+     * A merge left unfinished is started over by the next one, so the caller
+     * joins the thread if the merge should finish before it exits.
+     */
+    public static Thread startBackgroundMerge(final SearchEngine.Options options) {
+        Thread merger = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mergeSegments(options);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "segment-merger");
+        merger.setDaemon(true);
+        merger.start();
+        return merger;
+    }
+}
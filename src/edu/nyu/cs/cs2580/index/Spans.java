@@ -0,0 +1,98 @@
+package edu.nyu.cs.cs2580.index;
+
+/**
+ * The minimal windows of one document holding an occurrence of every one of
+ * several words, in increasing order: no smaller window inside one holds
+ * them all. Read straight from the occurrences already decoded by the
+ * cursors of the words, with one pointer per word which only moves forward,
+ * so walking all the windows is linear in the occurrences.
+ * <p/>
+ * The first window ends at the earliest position by which every word has
+ * occurred, and starts at the latest position which still keeps them all.
+ * The next window must leave out the word at that start: it ends once that
+ * word occurs again, or at the end of the previous window, if later.
+ */
+public class Spans {
+
+    private final int[][] occurrences;
+    // Current occurrence of every word.
+    private final int[] index;
+    private int startWord = -1;
+    private int start = -1;
+    private int end = -1;
+    private boolean exhausted;
+
+    /**
+     * @param occurrences sorted occurrences of distinct words in one document.
+     */
+    public Spans(int[][] occurrences) {
+        this.occurrences = occurrences;
+        index = new int[occurrences.length];
+        exhausted = occurrences.length == 0;
+        for (int[] positions : occurrences) {
+            if (positions.length == 0) exhausted = true;
+        }
+    }
+
+    /**
+     * Move to the next minimal window.
+     *
+     * @return false once there is none left.
+     */
+    public boolean next() {
+        if (exhausted) return false;
+        if (startWord >= 0 && ++index[startWord] == occurrences[startWord].length) {
+            exhausted = true;
+            return false;
+        }
+        end = -1;
+        for (int t = 0; t < occurrences.length; t++) end = Math.max(end, occurrences[t][index[t]]);
+        start = Integer.MAX_VALUE;
+        for (int t = 0; t < occurrences.length; t++) {
+            int[] positions = occurrences[t];
+            while (index[t] + 1 < positions.length && positions[index[t] + 1] <= end) index[t]++;
+            if (positions[index[t]] < start) {
+                start = positions[index[t]];
+                startWord = t;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Position of the first word of the current window.
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * Position of the last word of the current window.
+     */
+    public int end() {
+        return end;
+    }
+
+    /**
+     * Number of words in the current window, its own and any between them.
+     */
+    public int width() {
+        return end - start + 1;
+    }
+
+    /**
+     * Width of the smallest window holding every word.
+     *
+     * @return 0 if one of the words doesn't occur.
+     */
+    public static int minimalWidth(int[][] occurrences) {
+        Spans spans = new Spans(occurrences);
+        int width = 0;
+        while (spans.next()) {
+            if (width == 0 || spans.width() < width) width = spans.width();
+            // Can't get any smaller than the words next to each other.
+            if (width == occurrences.length) break;
+        }
+        return width;
+    }
+}
@@ -2,16 +2,29 @@ package edu.nyu.cs.cs2580.models;
 
 import edu.nyu.cs.cs2580.helper.HtmlParser;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.regex.Pattern;
 
 /**
  * @CS2580: implement this class for HW2 to handle phrase. If the raw query is
  * ["new york city"], the presence of the phrase "new york city" must be
  * recorded here and be used in indexing and ranking.
+ * <p/>
+ * Words joined by NEAR/k, as in [new NEAR/3 york], must all be in a window
+ * with at most k other words, in any order. Such a group is kept as a single
+ * token made of the operator and its words, "NEAR/3 new york": stemmed
+ * words are lowercase, so it can't be mistaken for one. Like a phrase, it
+ * contains a space. See {@link #isNear(String)} and {@link #words(String)}.
  */
 public class QueryPhrase {
+    public static final String NEAR = "NEAR/";
+    private static final Pattern NEAR_OPERATOR = Pattern.compile("(?i)near/\\d{1,9}");
+
     public String _query = null;
     public Vector<String> _tokens = new Vector<String>();
     private Map<String, String> raw = new HashMap<String, String>();
@@ -52,7 +65,23 @@ public class QueryPhrase {
         if (!lastToken.isEmpty()) _tokens.add(lastToken);
         
         Vector<String> cleanTokens = new Vector<String>();
-        for (String token : _tokens) {
+        for (int first = 0; first < _tokens.size(); first++) {
+            String token = _tokens.get(first);
+            // An operator without a word on either side is left out.
+            if (NEAR_OPERATOR.matcher(token).matches()) continue;
+            int end = first;
+            int window = Integer.MAX_VALUE;
+            while (end + 2 < _tokens.size() && NEAR_OPERATOR.matcher(_tokens.get(end + 1)).matches()
+                    && !_tokens.get(end).contains(" ") && !_tokens.get(end + 2).contains(" ")) {
+                window = Math.min(window, Integer.parseInt(_tokens.get(end + 1).substring(NEAR.length())));
+                end += 2;
+            }
+            if (end > first) {
+                String near = nearToken(first, end, window);
+                if (near != null) cleanTokens.add(near);
+                first = end;
+                continue;
+            }
             String stemmed = HtmlParser.clean(token);
             cleanTokens.add(stemmed);
             String[] rawParts = token.split("\\s+");
@@ -64,6 +93,51 @@ public class QueryPhrase {
         _tokens = cleanTokens;
     }
 
+    /**
+     * The token of the NEAR group made of the words from {@code first} to
+     * {@code last}, every other one, or the only word left once they are
+     * cleaned. Null if there is none.
+     */
+    private String nearToken(int first, int last, int window) {
+        Set<String> words = new LinkedHashSet<String>();
+        for (int j = first; j <= last; j += 2) {
+            String rawWord = _tokens.get(j).trim();
+            String stemmed = HtmlParser.clean(rawWord);
+            if (stemmed.isEmpty()) continue;
+            for (String word : stemmed.split("\\s+")) {
+                words.add(word);
+                raw.put(word, rawWord);
+            }
+        }
+        if (words.size() < 2) return words.isEmpty() ? null : words.iterator().next();
+        StringBuilder near = new StringBuilder(NEAR).append(window);
+        for (String word : words) near.append(' ').append(word);
+        return near.toString();
+    }
+
+    /**
+     * Whether {@code token} is a NEAR group.
+     */
+    public static boolean isNear(String token) {
+        return token.startsWith(NEAR);
+    }
+
+    /**
+     * Largest number of other words between the words of a NEAR group.
+     */
+    public static int nearWindow(String token) {
+        return Integer.parseInt(token.substring(NEAR.length(), token.indexOf(' ')));
+    }
+
+    /**
+     * The words of a token: the token itself, the words of a phrase, or those
+     * of a NEAR group.
+     */
+    public static String[] words(String token) {
+        String[] words = token.split("\\s+");
+        return isNear(token) ? Arrays.copyOfRange(words, 1, words.length) : words;
+    }
+
     public String toString() {
         return _query.replaceAll("\\+", " ");
     }
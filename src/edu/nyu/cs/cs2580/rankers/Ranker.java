@@ -58,6 +58,8 @@ public abstract class Ranker {
         public static Ranker getRankerByArguments(QueryHandler.CgiArguments arguments,
                                                   Options options, Indexer indexer) {
             switch (arguments._rankerType) {
+                case MAXSCORE:
+                    return new RankerMaxScore(options, arguments, indexer);
                 default:
                     return new RankerComprehensive(options, arguments, indexer);
             }
@@ -6,7 +6,10 @@ import java.util.*;
 import edu.nyu.cs.cs2580.QueryHandler.CgiArguments;
 import edu.nyu.cs.cs2580.SearchEngine.Options;
 import edu.nyu.cs.cs2580.helper.SpellingException;
+import edu.nyu.cs.cs2580.index.BlockMaxWand;
+import edu.nyu.cs.cs2580.index.ImpactCursor;
 import edu.nyu.cs.cs2580.index.Indexer;
+import edu.nyu.cs.cs2580.index.PostingsCursor;
 import edu.nyu.cs.cs2580.models.Document;
 import edu.nyu.cs.cs2580.models.QueryPhrase;
 import edu.nyu.cs.cs2580.models.ScoredDocument;
@@ -24,6 +27,16 @@ public class RankerComprehensive extends Ranker {
     private static final double GOODNESS_RATIO = 1.5;
     private static final double STOP_WORD_RATIO = 0.5;
     Map<String, Double> tokenFrequencies;
+    // Distinct words of the query whose proximity is scored, if there are two or more.
+    private List<String> proximityWords = Collections.emptyList();
+    // Worst document first: lowest score, then lowest PageRank.
+    private static final Comparator<ScoredDocument> BY_SCORE_AND_PAGERANK = new Comparator<ScoredDocument>() {
+        @Override
+        public int compare(ScoredDocument d1, ScoredDocument d2) {
+            int order = Double.compare(d1.getScore(), d2.getScore());
+            return order != 0 ? order : Float.compare(d1.getDoc().getPageRank(), d2.getDoc().getPageRank());
+        }
+    };
     static LinkedHashMap<String, Vector<ScoredDocument>> cachedQueries = new LinkedHashMap<String, Vector<ScoredDocument>>(QUERIES_TO_CACHE, .5f, true) {
         @Override
         public boolean removeEldestEntry(Map.Entry eldest) {
@@ -43,10 +56,15 @@ public class RankerComprehensive extends Ranker {
         tokenFrequencies.put(token, tokenFrequency);
 
         if (token.contains(" ")) {
+            // A phrase, or a NEAR group written back with its operators.
+            boolean near = QueryPhrase.isNear(token);
             boolean spellingIssue = false;
-            spellingCorrection.append("\"");
+            if (!near) spellingCorrection.append("\"");
             StringBuilder quotedPart = new StringBuilder();
-            for (String word : token.split("\\s")){
+            for (String word : QueryPhrase.words(token)){
+                if (near && quotedPart.length() > 0) {
+                    quotedPart.append(QueryPhrase.NEAR).append(QueryPhrase.nearWindow(token)).append(" ");
+                }
                 double quotedTokenFrequency = _indexer.corpusTermFrequency(word);
                 if (quotedTokenFrequency <= 1) {
                     quotedPart.append(correctSpelling(word, query)).append(" ");
@@ -57,7 +75,7 @@ public class RankerComprehensive extends Ranker {
                 }
             }
             spellingCorrection.append(quotedPart.toString().trim());
-            spellingCorrection.append("\" ");
+            spellingCorrection.append(near ? " " : "\" ");
             return spellingIssue;
         }
         else {
@@ -97,17 +115,29 @@ public class RankerComprehensive extends Ranker {
     @Override
     public Vector<ScoredDocument> runQuery(QueryPhrase query, int numResults) throws SpellingException {
         System.out.println("Running " + query);
-        if (cachedQueries.containsKey(query._query)) return cachedQueries.get(query._query);
+        boolean disjunctive = isDisjunctive();
+        // The same query may be asked for a different number of results, by
+        // /prf, and results of an index since updated are left to expire.
+        String cacheKey = _indexer.indexVersion() + "\t" + getClass().getSimpleName() + "\t" + query._query
+                + "\t" + numResults + (disjunctive ? "\tor" : "");
+        if (cachedQueries.containsKey(cacheKey)) return cachedQueries.get(cacheKey);
 
-        boolean spellingIssue = false;
+        int misspelled = 0;
         StringBuilder spellingCorrection = new StringBuilder();
 
         for (String token : query._tokens) {
-            if (processWord(token, spellingCorrection, query)) spellingIssue = true;
+            if (processWord(token, spellingCorrection, query)) misspelled++;
         }
-        if (spellingIssue) {
+        // Any token is enough for a disjunctive query to find something.
+        if (misspelled > 0 && (!disjunctive || misspelled == query._tokens.size())) {
             throw new SpellingException(spellingCorrection.toString());
         }
+        if (disjunctive && misspelled > 0) {
+            // Left out before stop words, so those never leave only tokens without documents.
+            for (Iterator<String> it = query._tokens.iterator(); it.hasNext(); ) {
+                if (tokenFrequencies.get(it.next()) <= 1) it.remove();
+            }
+        }
 
         // stop words filtering
         int stop_th = (int) (STOP_WORD_RATIO * _indexer.numDocs());
@@ -130,21 +160,33 @@ public class RankerComprehensive extends Ranker {
         }
 
         System.out.println("Filtered query: " + query._tokens);
-        Queue<ScoredDocument> queue = new PriorityQueue<ScoredDocument>();
+        if (!disjunctive && _options._proximity_weight > 0) {
+            Set<String> words = new LinkedHashSet<String>();
+            for (String token : query._tokens) {
+                if (!token.contains(" ")) words.add(token);
+            }
+            if (words.size() > 1) proximityWords = new ArrayList<String>(words);
+        }
+        Queue<ScoredDocument> queue = null;
+        if (disjunctive) queue = runDisjunctive(query, numResults);
+        else if (_options._early_termination) queue = runEarlyTerminating(query, numResults);
 
-        try {
-            long docId = 0;
-            Document doc;
-            int i = 0;
-            while ((doc = _indexer.nextDoc(query, docId)) != null) {
-                docId = doc._docid;
-                ScoredDocument currDoc = score(i++, doc, query);
-                queue.add(currDoc);
-                if (queue.size() > numResults) queue.poll();
+        if (queue == null) {
+            queue = new PriorityQueue<ScoredDocument>();
+            try {
+                long docId = 0;
+                Document doc;
+                int i = 0;
+                while ((doc = _indexer.nextDoc(query, docId)) != null) {
+                    docId = doc._docid;
+                    ScoredDocument currDoc = score(i++, doc, query);
+                    queue.add(currDoc);
+                    if (queue.size() > numResults) queue.poll();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.out.println(":(");
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println(":(");
         }
         Vector<ScoredDocument> result = new Vector<ScoredDocument>(queue);
 
@@ -157,11 +199,115 @@ public class RankerComprehensive extends Ranker {
         Collections.sort(result);
         Collections.reverse(result);
 
-        cachedQueries.put(query._query, result);
+        cachedQueries.put(cacheKey, result);
         return result;
     }
 
 
+    /**
+     * The best numResults documents with every token of the query, by score
+     * and then by PageRank, found by reading the impact ordered lists of the
+     * tokens in turn. A document met in one list is scored right away with
+     * its term frequencies in the others. No document left unread can score
+     * more than the product of the largest term frequencies left in every
+     * list, and one reaching exactly that has no more PageRank than the next
+     * document of every list. Reading stops as soon as that can't beat the
+     * worst document kept, usually long before the end of the lists. With
+     * proximity, that product is multiplied by its largest factor.
+     *
+     * @return null if a token has no impact ordered list, such as a phrase.
+     */
+    private Queue<ScoredDocument> runEarlyTerminating(QueryPhrase query, int numResults) {
+        int numTokens = query._tokens.size();
+        ImpactCursor[] cursors = new ImpactCursor[numTokens];
+        for (int t = 0; t < numTokens; t++) {
+            cursors[t] = _indexer.impactCursor(query._tokens.get(t));
+            if (cursors[t] == null) return null;
+        }
+
+        Queue<ScoredDocument> queue = new PriorityQueue<ScoredDocument>(numResults + 1, BY_SCORE_AND_PAGERANK);
+        Set<Integer> seen = new HashSet<Integer>();
+        int read = 0;
+        for (int t = 0; numResults > 0; t = (t + 1) % numTokens) {
+            // Once a list is read to its end, every document left in the
+            // others lacks its token: the threshold drops to 0.
+            double threshold = proximityWords.isEmpty() ? 1.0 : 1.0 + _options._proximity_weight;
+            float pageRank = Float.MAX_VALUE;
+            for (int u = 0; u < numTokens; u++) {
+                threshold *= cursors[u].maxRemainingTermFrequency() / tokenFrequencies.get(query._tokens.get(u));
+                pageRank = Math.min(pageRank, cursors[u].maxRemainingPageRank());
+            }
+            if (threshold == 0) break;
+            if (queue.size() == numResults) {
+                ScoredDocument worst = queue.peek();
+                if (worst.getScore() > threshold
+                        || worst.getScore() == threshold && worst.getDoc().getPageRank() >= pageRank) break;
+            }
+
+            int docId = cursors[t].nextDoc();
+            read++;
+            if (!seen.add(docId)) continue;
+            // Same order of products as score(), so equal frequencies give equal scores.
+            double resultByTokens = 1.0;
+            for (int u = 0; u < numTokens && resultByTokens > 0; u++) {
+                String token = query._tokens.get(u);
+                int numOccurrences = u == t ? cursors[t].termFrequency() : _indexer.documentTermFrequency(token, docId);
+                resultByTokens *= numOccurrences / tokenFrequencies.get(token);
+            }
+            if (resultByTokens == 0) continue;
+            resultByTokens *= proximity(docId);
+            Document doc = _indexer.getDoc(docId);
+            if (doc == null) continue;
+            queue.add(new ScoredDocument(doc, resultByTokens));
+            if (queue.size() > numResults) queue.poll();
+        }
+        System.out.println("Early termination after reading " + read + " postings.");
+        return queue;
+    }
+
+    /**
+     * Whether documents need any token of the query rather than all of them.
+     */
+    protected boolean isDisjunctive() {
+        return _arguments != null && _arguments._mode == CgiArguments.QueryMode.OR;
+    }
+
+    /**
+     * The best numResults documents with any token of the query, by the sum
+     * of the numbers of occurrences of every token over its corpus frequency.
+     */
+    private Queue<ScoredDocument> runDisjunctive(QueryPhrase query, int numResults) {
+        List<PostingsCursor> cursors = new ArrayList<PostingsCursor>();
+        List<Double> weights = new ArrayList<Double>();
+        for (String token : query._tokens) {
+            PostingsCursor cursor = _indexer.postingsCursor(token);
+            if (cursor == null || tokenFrequencies.get(token) == 0) continue;
+            cursors.add(cursor);
+            weights.add(1.0 / tokenFrequencies.get(token));
+        }
+        Queue<ScoredDocument> queue = new PriorityQueue<ScoredDocument>();
+        if (cursors.isEmpty()) return queue;
+
+        double[] tokenWeights = new double[weights.size()];
+        for (int t = 0; t < tokenWeights.length; t++) tokenWeights[t] = weights.get(t);
+        for (BlockMaxWand.Hit hit : topDocsWithAnyToken(cursors, tokenWeights, numResults)) {
+            Document doc = _indexer.getDoc(hit.docId);
+            if (doc != null) queue.add(new ScoredDocument(doc, hit.score));
+        }
+        return queue;
+    }
+
+    /**
+     * The {@code k} documents of highest weighted sum of occurrences over the
+     * {@code cursors}, found with {@link BlockMaxWand}.
+     */
+    protected List<BlockMaxWand.Hit> topDocsWithAnyToken(List<PostingsCursor> cursors, double[] weights, int k) {
+        BlockMaxWand wand = new BlockMaxWand(cursors, weights);
+        List<BlockMaxWand.Hit> hits = wand.topDocs(k);
+        System.out.println("Block-Max WAND scored " + wand.numScored() + " documents.");
+        return hits;
+    }
+
     private ScoredDocument score(int i, Document doc, QueryPhrase query) {
         double resultByTokens = 1.0;
         for (String token : query._tokens) {
@@ -169,13 +315,28 @@ public class RankerComprehensive extends Ranker {
             // appears in this doc / the number of times the term appears in the corpus.
             // Our index only returns docs with all terms. So, we don't have to worry about
             // the case when the score is 0, rather than 1.
-            double numOccurrences = _indexer.documentTermFrequency(token, doc.getUrl());
+            double numOccurrences = _indexer.documentTermFrequency(token, (int) doc._docid);
             resultByTokens *= numOccurrences / tokenFrequencies.get(token);
         }
+        resultByTokens *= proximity((int) doc._docid);
 
         return new ScoredDocument(doc, resultByTokens);
     }
 
+    /**
+     * Factor of the score of a document with every word of the query, from 1
+     * for words far apart to 1 + proximity_weight for words next to each
+     * other: the number of words over the width of the smallest window
+     * holding them all. Computed from the positions of the cursors already on
+     * the document, so it costs no second pass over the postings.
+     */
+    private double proximity(int docId) {
+        if (proximityWords.isEmpty()) return 1.0;
+        int width = _indexer.minimalSpan(proximityWords, docId);
+        if (width == 0) return 1.0;
+        return 1.0 + _options._proximity_weight * proximityWords.size() / width;
+    }
+
     private double computeMaxTokensScore(Vector<ScoredDocument> res){
         double max = -1;
         for (ScoredDocument sd : res){
@@ -197,8 +358,9 @@ public class RankerComprehensive extends Ranker {
     private void integrateScores(ScoredDocument doc, double tokensMax,
                                  double pagerankMax){
 
-        // get normalized pagerank for this doc
-        double currPageRank = (double)doc.getDoc().getPageRank() / pagerankMax;
+        // get normalized pagerank for this doc. Documents added by an update
+        // have none until the next mining.
+        double currPageRank = pagerankMax > 0 ? (double)doc.getDoc().getPageRank() / pagerankMax : 0;
 
         // get normalized tokensMax for this doc
         double currTokens = (double)doc.getScore() / tokensMax;
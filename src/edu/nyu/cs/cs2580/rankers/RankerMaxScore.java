@@ -0,0 +1,37 @@
+package edu.nyu.cs.cs2580.rankers;
+
+import java.util.List;
+
+import edu.nyu.cs.cs2580.QueryHandler.CgiArguments;
+import edu.nyu.cs.cs2580.SearchEngine.Options;
+import edu.nyu.cs.cs2580.index.BlockMaxWand;
+import edu.nyu.cs.cs2580.index.Indexer;
+import edu.nyu.cs.cs2580.index.MaxScore;
+import edu.nyu.cs.cs2580.index.PostingsCursor;
+
+/**
+ * The comprehensive ranker for long queries, such as text pasted from a
+ * document: documents need any token of the query, as with mode=or, and are
+ * found with {@link MaxScore} instead of Block-Max WAND. The results are the
+ * same as those of ranker=comprehensive&mode=or, so the two can be compared.
+ */
+public class RankerMaxScore extends RankerComprehensive {
+
+    public RankerMaxScore(Options options, CgiArguments arguments, Indexer indexer) {
+        super(options, arguments, indexer);
+    }
+
+    @Override
+    protected boolean isDisjunctive() {
+        return true;
+    }
+
+    @Override
+    protected List<BlockMaxWand.Hit> topDocsWithAnyToken(List<PostingsCursor> cursors, double[] weights, int k) {
+        MaxScore maxScore = new MaxScore(cursors, weights);
+        List<BlockMaxWand.Hit> hits = maxScore.topDocs(k);
+        System.out.println("MaxScore scored " + maxScore.numScored() + " documents, probing "
+                + maxScore.numProbed() + " postings.");
+        return hits;
+    }
+}